@@ -0,0 +1,103 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * the SampleKernels searches on the Vector API: each step compares a whole vector of samples and
+ * only drops to scalar code to find the first hit, or for the tail of a range.
+ * Loaded by SampleKernels when available; not part of the Android build.
+ *
+ * Build against the main classes, and run with the module added:
+ * <pre>
+ *   javac --release 21 --add-modules jdk.incubator.vector -cp bin/classes -d bin/classes src-vector/me/cosmodro/app/rhombus/decoder/VectorKernels.java
+ *   java --add-modules jdk.incubator.vector ...
+ * </pre>
+ */
+public class VectorKernels implements SampleKernels.Accelerated {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+
+	public VectorKernels(){
+	}
+
+	public int nextCrossing(int[] data, int from, int to, int lastSign, int level){
+		int i = from;
+		int bound = from + INTS.loopBound(to - from);
+		if (lastSign < 0){
+			for (; i < bound; i += INTS.length()){
+				VectorMask<Integer> hit = IntVector.fromArray(INTS, data, i).compare(VectorOperators.GT, level);
+				if (hit.anyTrue()){
+					return i + hit.firstTrue();
+				}
+			}
+			for (; i < to; i++){
+				if (data[i] > level){
+					return i;
+				}
+			}
+		}else{
+			int negLevel = -level;
+			for (; i < bound; i += INTS.length()){
+				VectorMask<Integer> hit = IntVector.fromArray(INTS, data, i).compare(VectorOperators.LT, negLevel);
+				if (hit.anyTrue()){
+					return i + hit.firstTrue();
+				}
+			}
+			for (; i < to; i++){
+				if (data[i] < negLevel){
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public int indexOfLoud(int[] data, int from, int to, int level){
+		int i = from;
+		int bound = from + INTS.loopBound(to - from);
+		int negLevel = -level;
+		for (; i < bound; i += INTS.length()){
+			IntVector v = IntVector.fromArray(INTS, data, i);
+			VectorMask<Integer> hit = v.compare(VectorOperators.GE, level).or(v.compare(VectorOperators.LE, negLevel));
+			if (hit.anyTrue()){
+				return i + hit.firstTrue();
+			}
+		}
+		for (; i < to; i++){
+			int v = data[i];
+			if (v >= level || -v >= level){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public int indexOfLoud(short[] data, int from, int to, int level){
+		int i = from;
+		//the comparisons are done in 16 bits, so only for levels whose negation is also a short
+		if (level > Short.MIN_VALUE + 1 && level <= Short.MAX_VALUE){
+			int bound = from + SHORTS.loopBound(to - from);
+			short high = (short)level;
+			short low = (short)-level;
+			for (; i < bound; i += SHORTS.length()){
+				ShortVector v = ShortVector.fromArray(SHORTS, data, i);
+				VectorMask<Short> hit = v.compare(VectorOperators.GE, high).or(v.compare(VectorOperators.LE, low));
+				if (hit.anyTrue()){
+					return i + hit.firstTrue();
+				}
+			}
+		}
+		for (; i < to; i++){
+			int v = data[i];
+			if (v >= level || -v >= level){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -1,21 +1,14 @@
 package me.cosmodro.app.rhombus;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
+import me.cosmodro.app.rhombus.archive.CaptureArchive;
+import me.cosmodro.app.rhombus.archive.CaptureArchiveWriter;
+import me.cosmodro.app.rhombus.decoder.AudioDecoder;
+import me.cosmodro.app.rhombus.decoder.SampleKernels;
 import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
 public class AudioMonitor {
@@ -23,27 +16,53 @@ public class AudioMonitor {
 	
 	private boolean debugging = true;
 
-	private Handler mHandler;
+	private MessageSink sink;
 	
-	private byte[] audioBytes;
+	private short[] capture = new short[0]; //reused for every swipe, sized by preallocate()
 	
 	private int frequency = 44100;
-	private int channelConfiguration = AudioFormat.CHANNEL_IN_MONO;
-	private int audioEncoding = AudioFormat.ENCODING_PCM_16BIT;
 	private int bufferSize;
-	private AudioRecord audioRecord;
+	private AudioSource audioSource;
 	private int silenceLevel = 500; //arbitrary level below which we consider "silent"
 	private int minLevel = silenceLevel; //adaptive minimum level, should vary with each swipe.
 	private double smoothing = 0.1;
 	private double minLevelCoeff = 0.5;
+	private int maxCaptureSeconds = 10;
 	
-	private boolean recording = false;
+	private volatile boolean recording = false;
+	
+	private CaptureArchiveWriter archive; //optional, receives a copy of every recorded swipe
 
 	public AudioMonitor(Handler handler){
-		mHandler = handler;
+		this(new HandlerMessageSink(handler), new AudioRecordSource(), true);
+	}
+	
+	/**
+	 * create a monitor which reads from any AudioSource and reports through any MessageSink.
+	 * Debug logging starts off, since android.util.Log is not available on a plain JVM.
+	 * @param sink
+	 * @param source
+	 */
+	public AudioMonitor(MessageSink sink, AudioSource source){
+		this(sink, source, false);
+	}
+	
+	private AudioMonitor(MessageSink sink, AudioSource source, boolean debugging){
+		this.sink = sink;
+		this.audioSource = source;
+		this.debugging = debugging;
 		setFrequency(frequency);
 	}
 	
+	/**
+	 * set whether to log debug messages through android.util.Log.
+	 * Defaults to true when created with a Handler, false otherwise
+	 * @param debugging
+	 */
+	public void setDebugging(boolean debugging){
+		this.debugging = debugging;
+	}
+	
 	/**
 	 * set the sample rate for recording.  Recalculates internal buffersize according to value.
 	 * @param f
@@ -56,15 +75,13 @@ public class AudioMonitor {
 			int oldfreq = frequency;
 			frequency = f;
 			debug(TAG, "setting frequency to: "+f);
-			bufferSize = AudioRecord.getMinBufferSize(frequency, channelConfiguration, audioEncoding)*2;
+			bufferSize = audioSource.getMinBufferSize(frequency)*2;
 			if (bufferSize < 0){
 				debug(TAG, "could not set sample rate as requested.  Error code is:"+bufferSize);
 				frequency = oldfreq;
-				bufferSize = AudioRecord.getMinBufferSize(frequency, channelConfiguration, audioEncoding)*2;
+				bufferSize = audioSource.getMinBufferSize(frequency)*2;
 				
-		        Message msg = Message.obtain();
-		        msg.what = MessageType.INVALID_SAMPLE_RATE.ordinal();
-		        mHandler.sendMessage(msg);
+		        sink.send(MessageType.INVALID_SAMPLE_RATE, null);
 			}
 		}
 	}
@@ -94,6 +111,94 @@ public class AudioMonitor {
 		this.silenceLevel = silenceLevel;
 	}
 
+	/**
+	 * get the longest swipe recording, in seconds
+	 * @return
+	 */
+	public int getMaxCaptureSeconds() {
+		return maxCaptureSeconds;
+	}
+
+	/**
+	 * set the longest swipe recording, in seconds, after which recording stops even if the card is still sounding.
+	 * Defaults to 10
+	 * @param maxCaptureSeconds
+	 * @throws IllegalStateException if called while recording
+	 */
+	public void setMaxCaptureSeconds(int maxCaptureSeconds) {
+		if (recording){
+			throw new IllegalStateException("Cannot set max capture length while recording");
+		}
+		this.maxCaptureSeconds = maxCaptureSeconds;
+	}
+
+	/**
+	 * size the capture buffer from the current frequency and max capture length,
+	 * so the first swipe doesn't have to allocate it.  Called automatically when recording starts.
+	 * @throws IllegalStateException if called while recording
+	 */
+	public void preallocate(){
+		if (recording){
+			throw new IllegalStateException("Cannot preallocate while recording");
+		}
+		sizeCaptureBuffer();
+	}
+
+	private void sizeCaptureBuffer(){
+		//a full capture, plus the buffer that triggered it and the read that may overrun the limit
+		int size = frequency * maxCaptureSeconds + bufferSize * 2;
+		if (capture.length != size){
+			capture = new short[size];
+		}
+	}
+
+	/**
+	 * preallocate this monitor's and the decoder's buffers, then start warming up the decoder's paths on a background thread,
+	 * so the first real swipe sees steady state latency.  Call once the settings are final, e.g. at startup,
+	 * and before the decoder is first used, since its buffers are sized from this thread.
+	 * @param decoder the decoder the recorded swipes will be given to
+	 * @return the started (daemon) warm-up thread
+	 */
+	public Thread warmUp(AudioDecoder decoder){
+		preallocate();
+		decoder.preallocate(capture.length);
+		return decoder.warmUpInBackground(frequency);
+	}
+
+	/**
+	 * get the archive recorded swipes are copied to
+	 * @return the archive writer, or null if not archiving, including after archiving failed and was dropped
+	 */
+	public CaptureArchiveWriter getCaptureArchive() {
+		return archive;
+	}
+
+	/**
+	 * set an archive to copy the raw samples of every recorded swipe to, or null to stop archiving.
+	 * Samples are written as they are read, so archiving does not hold extra copies of a swipe in memory.
+	 * The caller remains responsible for closing the writer.
+	 * If writing to the archive fails, archiving stops and recording carries on.
+	 * @param archive
+	 * @throws IllegalStateException if called while recording
+	 */
+	public void setCaptureArchive(CaptureArchiveWriter archive) {
+		if (recording){
+			throw new IllegalStateException("Cannot set capture archive while recording");
+		}
+		this.archive = archive;
+	}
+
+	/**
+	 * create a capture archive header describing the current sample rate and the settings of the decoder
+	 * the recorded swipes are given to, for use when opening a CaptureArchiveWriter.
+	 * @param decoder the decoder in use
+	 * @param squelchLevel samples at or below this level may be stored as silence.  0 for lossless.
+	 * @return
+	 */
+	public CaptureArchive createArchiveHeader(AudioDecoder decoder, int squelchLevel){
+		return new CaptureArchive(frequency, decoder.getSilenceLevel(), squelchLevel, decoder.getSmoothing(), decoder.getMinLevelCoeff());
+	}
+
 	/**
 	 * get whether currently recording
 	 * @return
@@ -105,54 +210,31 @@ public class AudioMonitor {
 	public void startRecording(){
 		debug(TAG, "start recording");
 		debug(TAG, "bufferSize: "+bufferSize);
-    	audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
-    			frequency, channelConfiguration,
-    			audioEncoding, bufferSize);
-		audioRecord.startRecording();
+		sizeCaptureBuffer();
+		audioSource.start(frequency, bufferSize);
     	recording = true;
 	}
 
 	public void stopRecording(){
 		debug(TAG, "stop recording");
-		if (audioRecord != null){
-	    	audioRecord.stop();
-	    	audioRecord.release();
-	    	audioRecord = null;
-		}
     	recording = false;
+		audioSource.stop();
     }
 	
 	//begin monitoring mic input for > threshold values.  When one is detected, go to "record" mode
 	public void monitor(){
-        Message msg = Message.obtain();
-        msg.what = MessageType.NO_DATA_PRESENT.ordinal();
-        mHandler.sendMessage(msg);
+        sink.send(MessageType.NO_DATA_PRESENT, null);
     	short[] buffer = new short[bufferSize];
     	boolean silent = true;
-    	short bufferVal;
-    	boolean effectivelySilent;
         startRecording();
-        int found = 0;
         int quorum = 5; //number of non-silent samples to find before we begin recording.
         int bufferReadResult = 0;
         while(silent && recording){
-	    	bufferReadResult = audioRecord.read(buffer, 0, bufferSize);
-	    	found = 0;
-	    	for (int i = 0; i < bufferReadResult; i++){
-	    		bufferVal = buffer[i];
-	    		//debug(TAG, "monitor val:"+bufferVal+", found:"+found);
-	    		effectivelySilent =Math.abs(bufferVal) < silenceLevel; 
-	    		if (silent && !effectivelySilent){
-		    		found++;
-		    		if (found > quorum){
-		    			silent = false;
-		    			msg = Message.obtain();
-		    			msg.what = MessageType.DATA_PRESENT.ordinal();
-		    			mHandler.sendMessage(msg);
-		    		}
-	    		}else{ //need non-silent samples to be next to each other.
-	    			found = 0;
-	    		}
+	    	bufferReadResult = audioSource.read(buffer, 0, bufferSize);
+	    	//need non-silent samples to be next to each other.
+	    	if (bufferReadResult > 0 && SampleKernels.indexOfLoudRun(buffer, 0, bufferReadResult, silenceLevel, quorum) >= 0){
+	    		silent = false;
+	    		sink.send(MessageType.DATA_PRESENT, null);
 	    	}
         }
         if (!silent){
@@ -162,42 +244,52 @@ public class AudioMonitor {
 	
 	private void recordData(short[] initialBuffer, int initialBufferSize){
 		debug(TAG, "recording data");
-        Message msg = Message.obtain();
-    	// Create a DataOutputStream to write the audio data 
-    	ByteArrayOutputStream os = new ByteArrayOutputStream();
-    	BufferedOutputStream bos = new BufferedOutputStream(os);
-    	DataOutputStream dos = new DataOutputStream(bos);
+		//read straight into the capture buffer, which was sized by preallocate
+		short[] capture = this.capture;
 		
     	short bufferVal;
-    	short[] buffer = new short[bufferSize];
     	boolean effectivelySilent;
     	int silenceAtEndThreshold = frequency; //get one second of (near) silence
     	int silentSamples = 0;
-    	int maxSamples = frequency * 10;
+    	int maxSamples = frequency * maxCaptureSeconds;
     	int totalSamples = 0;
     	boolean done = false; //have we recorded 1 second of silence
     	int bufferReadResult = 0;
     	try{
-        	//copy stuff from intialBuffer to dos.
-        	for (int i = 0; i < initialBufferSize; i++){
-    			dos.writeShort(initialBuffer[i]);
-        	}
+        	//copy stuff from intialBuffer to capture.
+        	System.arraycopy(initialBuffer, 0, capture, 0, initialBufferSize);
+        	int captureLength = initialBufferSize;
+        	archiveBegin(initialBuffer, initialBufferSize);
         	int nonSilentAtEndFound = 0;
         	int quorum = 5;
 	    	while(!done && recording && totalSamples < maxSamples){
-		    	bufferReadResult = audioRecord.read(buffer, 0, bufferSize);
-		    	for (int i = 0; i < bufferReadResult; i++){
-		    		bufferVal = buffer[i];
+	    		int start = captureLength;
+		    	bufferReadResult = audioSource.read(capture, start, bufferSize);
+		    	if (bufferReadResult <= 0){
+		    		continue;
+		    	}
+		    	captureLength += bufferReadResult;
+		    	archiveWrite(capture, start, bufferReadResult);
+		    	if (SampleKernels.indexOfLoud(capture, start, captureLength, silenceLevel) < 0){
+		    		//whole buffer is silent, so skip the per-sample bookkeeping
+		    		nonSilentAtEndFound = 0;
+		    		silentSamples += bufferReadResult;
+		    		totalSamples += bufferReadResult;
+		    		if (silentSamples > silenceAtEndThreshold){
+		    			done = true;
+		    			sink.send(MessageType.NO_DATA_PRESENT, null);
+		    		}
+		    		continue;
+		    	}
+		    	for (int i = start; i < captureLength; i++){
+		    		bufferVal = capture[i];
 		    		effectivelySilent =Math.abs(bufferVal) < silenceLevel; 
-	    			dos.writeShort(buffer[i]);
 		    		if (effectivelySilent){
 		    			nonSilentAtEndFound = 0;
 		    			silentSamples++;
 		    			if (silentSamples > silenceAtEndThreshold){
 		    				done = true;
-			    			msg = Message.obtain();
-			    			msg.what = MessageType.NO_DATA_PRESENT.ordinal();
-			    			mHandler.sendMessage(msg);
+			    			sink.send(MessageType.NO_DATA_PRESENT, null);
 		    			}
 		    		}else{
 		    			nonSilentAtEndFound++;
@@ -209,47 +301,79 @@ public class AudioMonitor {
 		    	}
 	    		
 	    	}
-	    	dos.close();
+	    	archiveEnd(); //keep aborted captures too, they're useful for troubleshooting
 	    	if (!recording){
 	    		debug(TAG, "not recording after loop in recorddata, assuming aborted");
-    			msg = Message.obtain();
-    			msg.what = MessageType.NO_DATA_PRESENT.ordinal();
-    			mHandler.sendMessage(msg);
+    			sink.send(MessageType.NO_DATA_PRESENT, null);
     			return;
 	    	}
-	    	audioBytes = os.toByteArray();
-			msg = Message.obtain();
-			msg.what = MessageType.DATA.ordinal();
-			msg.obj = getSamples(audioBytes);
-			mHandler.sendMessage(msg);
+			sink.send(MessageType.DATA, getSamples(capture, captureLength));
 			return;
 	    	
 	    	//reportResult(processData(getSamples(audioBytes)));
 	    	
     	}catch(Exception e){
-    		Log.e(TAG,"Recording Failed", e);
+    		if (debugging){
+    			Log.e(TAG,"Recording Failed", e);
+    		}
     		e.printStackTrace();
     		stopRecording();
-			msg = Message.obtain();
-			msg.what = MessageType.RECORDING_ERROR.ordinal();
-			mHandler.sendMessage(msg);
+			sink.send(MessageType.RECORDING_ERROR, null);
     	}
 		
 	}
 	
+	//archiving is only for troubleshooting, so if it fails the archive is dropped and the swipe carries on
+	
+	private void archiveBegin(short[] initialBuffer, int initialBufferSize){
+		if (archive != null){
+			try{
+				archive.beginSwipe();
+				archive.write(initialBuffer, 0, initialBufferSize);
+			}catch(IOException e){
+				archiveFailed(e);
+			}
+		}
+	}
+	
+	private void archiveWrite(short[] buffer, int offset, int length){
+		if (archive != null){
+			try{
+				archive.write(buffer, offset, length);
+			}catch(IOException e){
+				archiveFailed(e);
+			}
+		}
+	}
+	
+	private void archiveEnd(){
+		if (archive != null){
+			try{
+				archive.endSwipe();
+			}catch(IOException e){
+				archiveFailed(e);
+			}
+		}
+	}
+	
+	private void archiveFailed(IOException e){
+		if (debugging){
+			Log.e(TAG, "Capture archive failed, no longer archiving", e);
+		}
+		e.printStackTrace();
+		archive = null;
+	}
+	
 	/**
-	 * extracts 16 bit samples from an array of bytes
-	 * @param bytes
+	 * copies 16 bit samples into a list, which the receiver owns
+	 * @param samples
+	 * @param length
 	 * @return List<Integer> of samples.
-	 * @throws IOException
 	 */
-	private List<Integer> getSamples(byte[] bytes) throws IOException{
-		ArrayList<Integer> result = new ArrayList<Integer>(bytes.length/2);
-    	InputStream is = new ByteArrayInputStream(bytes);
-    	BufferedInputStream bis = new BufferedInputStream(is);
-    	DataInputStream dis = new DataInputStream(bis);
-		while (dis.available() > 0) {
-			result.add(Integer.valueOf(dis.readShort()));
+	private List<Integer> getSamples(short[] samples, int length){
+		ArrayList<Integer> result = new ArrayList<Integer>(length);
+		for (int i = 0; i < length; i++){
+			result.add(Integer.valueOf(samples[i]));
 		}
 		return result;
 	}
@@ -0,0 +1,39 @@
+package me.cosmodro.app.rhombus;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+/**
+ * AudioSource reading from the microphone (headset jack) through android.media.AudioRecord
+ */
+public class AudioRecordSource implements AudioSource {
+	private int channelConfiguration = AudioFormat.CHANNEL_IN_MONO;
+	private int audioEncoding = AudioFormat.ENCODING_PCM_16BIT;
+	private AudioRecord audioRecord;
+
+	public int getMinBufferSize(int frequency){
+		return AudioRecord.getMinBufferSize(frequency, channelConfiguration, audioEncoding);
+	}
+
+	public void start(int frequency, int bufferSize){
+		stop();
+		audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
+				frequency, channelConfiguration,
+				audioEncoding, bufferSize);
+		audioRecord.startRecording();
+	}
+
+	public int read(short[] buffer, int offset, int length){
+		return audioRecord.read(buffer, offset, length);
+	}
+
+	public void stop(){
+		if (audioRecord != null){
+			audioRecord.stop();
+			audioRecord.release();
+			audioRecord = null;
+		}
+	}
+
+}
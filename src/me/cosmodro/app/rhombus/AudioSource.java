@@ -0,0 +1,37 @@
+package me.cosmodro.app.rhombus;
+
+/**
+ * where AudioMonitor reads 16 bit mono PCM from.
+ * The Android implementation is AudioRecordSource; others can replay captured audio on a plain JVM.
+ */
+public interface AudioSource {
+
+	/**
+	 * get the smallest buffer, in bytes, the source can record into at the given sample rate
+	 * @param frequency sample rate in Hz
+	 * @return buffer size, or a negative error code if the sample rate is not supported
+	 */
+	public int getMinBufferSize(int frequency);
+
+	/**
+	 * begin capturing.  If already capturing, the previous capture is stopped first.
+	 * @param frequency sample rate in Hz
+	 * @param bufferSize as returned by getMinBufferSize, or larger
+	 */
+	public void start(int frequency, int bufferSize);
+
+	/**
+	 * read samples, blocking until some are available
+	 * @param buffer
+	 * @param offset
+	 * @param length maximum number of samples to read
+	 * @return number of samples read, or a negative error code
+	 */
+	public int read(short[] buffer, int offset, int length);
+
+	/**
+	 * stop capturing and release any resources.  Does nothing if not capturing.
+	 */
+	public void stop();
+
+}
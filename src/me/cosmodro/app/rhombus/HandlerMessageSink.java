@@ -0,0 +1,23 @@
+package me.cosmodro.app.rhombus;
+
+import android.os.Handler;
+import android.os.Message;
+
+/**
+ * MessageSink which posts to an Android Handler, with msg.what set to the MessageType ordinal
+ */
+public class HandlerMessageSink implements MessageSink {
+	private Handler mHandler;
+
+	public HandlerMessageSink(Handler handler){
+		mHandler = handler;
+	}
+
+	public void send(MessageType type, Object obj){
+		Message msg = Message.obtain();
+		msg.what = type.ordinal();
+		msg.obj = obj;
+		mHandler.sendMessage(msg);
+	}
+
+}
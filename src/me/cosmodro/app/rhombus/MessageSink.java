@@ -0,0 +1,15 @@
+package me.cosmodro.app.rhombus;
+
+/**
+ * receives the MessageType notifications AudioMonitor sends as it monitors and records.
+ * Called on the monitoring thread.
+ */
+public interface MessageSink {
+
+	/**
+	 * @param type
+	 * @param obj payload: the List<Integer> of samples for DATA, otherwise null
+	 */
+	public void send(MessageType type, Object obj);
+
+}
@@ -0,0 +1,129 @@
+package me.cosmodro.app.rhombus.archive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import me.cosmodro.app.rhombus.decoder.AudioDecoder;
+
+/**
+ * constants and shared coding routines for the Rhombus capture archive format.
+ *
+ * An archive is laid out as:
+ * <pre>
+ * header:  int magic, short version, int sampleRate, int silenceLevel, int squelchLevel,
+ *          double smoothing, double minLevelCoeff
+ * swipes:  one block of tokens per swipe, back to back
+ * index:   int swipeCount, then per swipe: long offset, int byteLength, int sampleCount
+ * trailer: long indexOffset, int magic
+ * </pre>
+ * All fixed width values are big endian, as written by DataOutputStream.
+ *
+ * Each swipe block is a sequence of unsigned varints (7 bits per byte, lsb group first).
+ * A token with its low bit clear is a sample: the remaining bits are the zigzag coded
+ * difference from the previous sample.  A token with its low bit set is a silence run:
+ * the remaining bits are the number of samples to emit as 0.  Runs are only written for
+ * samples whose absolute value is at most squelchLevel, so a squelchLevel of 0 is lossless.
+ * The previous sample is reset to 0 at the start of each swipe and after each silence run.
+ *
+ * Header values other than the sample rate are the decoder settings in effect when
+ * the swipes were captured, so that a replay can reproduce the original decode.
+ */
+public class CaptureArchive {
+	public static final int MAGIC = 0x52484341; //"RHCA"
+	public static final short VERSION = 1;
+
+	//size in bytes of the fixed header at the start of the archive
+	public static final int HEADER_SIZE = 4 + 2 + 4 + 4 + 4 + 8 + 8;
+	//size in bytes of the fixed trailer at the end of the archive
+	public static final int TRAILER_SIZE = 8 + 4;
+	//size in bytes of each index entry
+	public static final int INDEX_ENTRY_SIZE = 8 + 4 + 4;
+
+	//shortest run of squelched samples worth coding as a run rather than as samples
+	public static final int MIN_RUN = 4;
+
+	public int sampleRate;
+	public int silenceLevel;
+	public int squelchLevel;
+	public double smoothing;
+	public double minLevelCoeff;
+
+	public CaptureArchive(){
+		this(44100, 500, 0, 0.1, 0.5);
+	}
+
+	public CaptureArchive(int sampleRate, int silenceLevel, int squelchLevel, double smoothing, double minLevelCoeff){
+		this.sampleRate = sampleRate;
+		this.silenceLevel = silenceLevel;
+		this.squelchLevel = squelchLevel;
+		this.smoothing = smoothing;
+		this.minLevelCoeff = minLevelCoeff;
+	}
+
+	/**
+	 * apply the decoder settings recorded in this header to the given decoder
+	 * @param decoder
+	 */
+	public void configure(AudioDecoder decoder){
+		decoder.setSilenceLevel(silenceLevel);
+		decoder.setSmoothing(smoothing);
+		decoder.setMinLevelCoeff(minLevelCoeff);
+	}
+
+	public String toString(){
+		return "[sampleRate: "+sampleRate+", silenceLevel: "+silenceLevel+", squelchLevel: "+squelchLevel+
+				", smoothing: "+smoothing+", minLevelCoeff: "+minLevelCoeff+"]";
+	}
+
+	static int zigzag(int value){
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static int unzigzag(int value){
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * write an unsigned varint
+	 * @param os
+	 * @param value
+	 * @return number of bytes written
+	 * @throws IOException
+	 */
+	static int writeVarint(OutputStream os, int value) throws IOException{
+		int written = 1;
+		while ((value & ~0x7F) != 0){
+			os.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+			written++;
+		}
+		os.write(value);
+		return written;
+	}
+
+	/**
+	 * read an unsigned varint
+	 * @param is
+	 * @return the value read
+	 * @throws IOException if the stream ends part way through a value, or the value is malformed
+	 */
+	static int readVarint(InputStream is) throws IOException{
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 28){
+				throw new IOException("malformed varint in capture archive");
+			}
+			b = is.read();
+			if (b < 0){
+				throw new IOException("unexpected end of capture archive");
+			}
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+}
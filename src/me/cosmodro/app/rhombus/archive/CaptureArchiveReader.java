@@ -0,0 +1,288 @@
+package me.cosmodro.app.rhombus.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.AbstractSequentialList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * random access reader for the capture archive format described in {@link CaptureArchive}.
+ * Only the header and index are read up front.  Swipes are decoded on demand, straight from the file,
+ * so the archive as a whole is never inflated to 16 bit PCM in memory; one swipe at a time is.
+ * The cheapest way to decode a swipe is to read it with openSwipe into a short[] of getSampleCount samples
+ * and pass that to AudioDecoder.processData(short[], int, int, DecodeDeadline).
+ *
+ * Not thread safe: readers for different swipes may be interleaved, but only from one thread.
+ */
+public class CaptureArchiveReader {
+	private static final int BLOCK_SIZE = 4096;
+
+	private RandomAccessFile file;
+	private CaptureArchive header;
+	private long[] offsets;
+	private int[] byteLengths;
+	private int[] sampleCounts;
+
+	public CaptureArchiveReader(File f) throws IOException{
+		this(new RandomAccessFile(f, "r"));
+	}
+
+	/**
+	 * @param file archive to read.  will be closed by close()
+	 * @throws IOException if the file is not a complete capture archive
+	 */
+	public CaptureArchiveReader(RandomAccessFile file) throws IOException{
+		this.file = file;
+		long length = file.length();
+		if (length < CaptureArchive.HEADER_SIZE + 4 + CaptureArchive.TRAILER_SIZE){
+			throw new IOException("file too short to be a capture archive");
+		}
+		file.seek(0);
+		if (file.readInt() != CaptureArchive.MAGIC){
+			throw new IOException("not a capture archive");
+		}
+		short version = file.readShort();
+		if (version != CaptureArchive.VERSION){
+			throw new IOException("unsupported capture archive version: "+version);
+		}
+		header = new CaptureArchive();
+		header.sampleRate = file.readInt();
+		header.silenceLevel = file.readInt();
+		header.squelchLevel = file.readInt();
+		header.smoothing = file.readDouble();
+		header.minLevelCoeff = file.readDouble();
+
+		file.seek(length - CaptureArchive.TRAILER_SIZE);
+		long indexOffset = file.readLong();
+		if (file.readInt() != CaptureArchive.MAGIC){
+			throw new IOException("capture archive has no index.  was the writer closed?");
+		}
+		file.seek(indexOffset);
+		int count = file.readInt();
+		if (count < 0 || indexOffset + 4 + (long)count * CaptureArchive.INDEX_ENTRY_SIZE != length - CaptureArchive.TRAILER_SIZE){
+			throw new IOException("capture archive index is corrupt");
+		}
+		offsets = new long[count];
+		byteLengths = new int[count];
+		sampleCounts = new int[count];
+		for (int i = 0; i < count; i++){
+			offsets[i] = file.readLong();
+			byteLengths[i] = file.readInt();
+			sampleCounts[i] = file.readInt();
+		}
+	}
+
+	/**
+	 * get the sample rate and decoder settings the archive was recorded with
+	 * @return
+	 */
+	public CaptureArchive getHeader(){
+		return header;
+	}
+
+	public int getSwipeCount(){
+		return offsets.length;
+	}
+
+	/**
+	 * get the number of samples in a swipe
+	 * @param swipe index of swipe
+	 * @return
+	 */
+	public int getSampleCount(int swipe){
+		return sampleCounts[swipe];
+	}
+
+	/**
+	 * open a sequential reader over the samples of one swipe
+	 * @param swipe index of swipe
+	 * @return
+	 */
+	public SampleReader openSwipe(int swipe){
+		return new SampleReader(new RegionInputStream(offsets[swipe], byteLengths[swipe]), sampleCounts[swipe]);
+	}
+
+	/**
+	 * get the samples of a swipe as a List suitable for AudioDecoder.processData.
+	 * The list holds no samples itself; each iteration decodes them from the file again.
+	 * processData(List) still boxes and copies every sample, so this is a convenience, not a saving; see openSwipe.
+	 * The list reads through this reader, so it can't be iterated after close(), and throws IllegalStateException if it is.
+	 * That includes the raw samples of a SwipeData decoded from it, which are this same list.
+	 * @param swipe index of swipe
+	 * @return read only List<Integer> of samples.
+	 */
+	public List<Integer> getSamples(final int swipe){
+		return new AbstractSequentialList<Integer>(){
+			public int size(){
+				return sampleCounts[swipe];
+			}
+
+			public ListIterator<Integer> listIterator(int index){
+				SampleIterator it = new SampleIterator(openSwipe(swipe));
+				for (int i = 0; i < index; i++){
+					it.next();
+				}
+				return it;
+			}
+		};
+	}
+
+	public void close() throws IOException{
+		file.close();
+	}
+
+	/**
+	 * decodes the token stream of one swipe back into samples.
+	 */
+	public static class SampleReader {
+		private InputStream in;
+		private int remaining;
+		private int prev = 0;
+		private int runRemaining = 0;
+
+		SampleReader(InputStream in, int sampleCount){
+			this.in = in;
+			this.remaining = sampleCount;
+		}
+
+		/**
+		 * get the number of samples left to read
+		 * @return
+		 */
+		public int remaining(){
+			return remaining;
+		}
+
+		/**
+		 * read the next sample
+		 * @return
+		 * @throws IOException
+		 * @throws NoSuchElementException if all samples have been read
+		 */
+		public short next() throws IOException{
+			if (remaining <= 0){
+				throw new NoSuchElementException();
+			}
+			remaining--;
+			if (runRemaining > 0){
+				runRemaining--;
+				return 0;
+			}
+			int token = CaptureArchive.readVarint(in);
+			if ((token & 1) != 0){
+				runRemaining = (token >>> 1) - 1;
+				prev = 0;
+				return 0;
+			}
+			prev += CaptureArchive.unzigzag(token >>> 1);
+			return (short)prev;
+		}
+
+		/**
+		 * read up to length samples into buffer
+		 * @param buffer
+		 * @param offset
+		 * @param length
+		 * @return number of samples read, or -1 if all samples have been read
+		 * @throws IOException
+		 */
+		public int read(short[] buffer, int offset, int length) throws IOException{
+			if (remaining <= 0){
+				return -1;
+			}
+			int n = Math.min(length, remaining);
+			for (int i = 0; i < n; i++){
+				buffer[offset + i] = next();
+			}
+			return n;
+		}
+	}
+
+	private static class SampleIterator implements ListIterator<Integer> {
+		private SampleReader reader;
+		private int index = 0;
+
+		SampleIterator(SampleReader reader){
+			this.reader = reader;
+		}
+
+		public boolean hasNext(){
+			return reader.remaining() > 0;
+		}
+
+		public Integer next(){
+			try{
+				Integer val = Integer.valueOf(reader.next());
+				index++;
+				return val;
+			}catch(IOException e){
+				throw new IllegalStateException("could not read capture archive", e);
+			}
+		}
+
+		public int nextIndex(){
+			return index;
+		}
+
+		public boolean hasPrevious(){
+			return false;
+		}
+
+		public Integer previous(){
+			throw new UnsupportedOperationException();
+		}
+
+		public int previousIndex(){
+			return index - 1;
+		}
+
+		public void remove(){
+			throw new UnsupportedOperationException();
+		}
+
+		public void set(Integer e){
+			throw new UnsupportedOperationException();
+		}
+
+		public void add(Integer e){
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * buffered stream over a byte range of the archive file.
+	 * keeps its own position so several may be open at once.
+	 */
+	private class RegionInputStream extends InputStream {
+		private long position;
+		private long end;
+		private byte[] block = new byte[BLOCK_SIZE];
+		private int blockPos = 0;
+		private int blockLen = 0;
+
+		RegionInputStream(long offset, int length){
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		public int read() throws IOException{
+			if (blockPos == blockLen){
+				int n = (int)Math.min(BLOCK_SIZE, end - position);
+				if (n <= 0){
+					return -1;
+				}
+				file.seek(position);
+				file.readFully(block, 0, n);
+				position += n;
+				blockPos = 0;
+				blockLen = n;
+			}
+			return block[blockPos++] & 0xFF;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+package me.cosmodro.app.rhombus.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * streaming writer for the capture archive format described in {@link CaptureArchive}.
+ * Samples are coded as they arrive, so a swipe never has to be held in memory to be archived.
+ * The index is kept in memory (16 bytes per swipe) and written by {@link #close()}.
+ *
+ * Usage: beginSwipe(), any number of write() calls, endSwipe(), repeated per swipe, then close().
+ * Not thread safe.
+ */
+public class CaptureArchiveWriter {
+	private DataOutputStream out;
+	private CaptureArchive header;
+	private int squelchLevel;
+
+	//bytes written so far, used to record swipe offsets in the index
+	private long position;
+
+	private long[] offsets = new long[16];
+	private int[] byteLengths = new int[16];
+	private int[] sampleCounts = new int[16];
+	private int swipeCount = 0;
+
+	private boolean inSwipe = false;
+	private long swipeStart;
+	private int swipeSamples;
+	private int prev;
+
+	//squelched samples seen since the last loud one.  the first MIN_RUN are kept in case the run is too short to code as a run.
+	private int runLength;
+	private short[] pending = new short[CaptureArchive.MIN_RUN];
+
+	/**
+	 * create a writer and write the archive header
+	 * @param os stream to write to.  will be closed by close()
+	 * @param header sample rate and decoder settings to record
+	 * @throws IOException
+	 */
+	public CaptureArchiveWriter(OutputStream os, CaptureArchive header) throws IOException{
+		this.out = new DataOutputStream(new BufferedOutputStream(os));
+		this.header = header;
+		this.squelchLevel = header.squelchLevel;
+		out.writeInt(CaptureArchive.MAGIC);
+		out.writeShort(CaptureArchive.VERSION);
+		out.writeInt(header.sampleRate);
+		out.writeInt(header.silenceLevel);
+		out.writeInt(header.squelchLevel);
+		out.writeDouble(header.smoothing);
+		out.writeDouble(header.minLevelCoeff);
+		position = CaptureArchive.HEADER_SIZE;
+	}
+
+	public CaptureArchive getHeader(){
+		return header;
+	}
+
+	/**
+	 * get the number of completed swipes written so far
+	 * @return
+	 */
+	public int getSwipeCount(){
+		return swipeCount;
+	}
+
+	/**
+	 * start a new swipe.  If a swipe is already in progress, it is ended first.
+	 * @throws IOException
+	 */
+	public void beginSwipe() throws IOException{
+		if (inSwipe){
+			endSwipe();
+		}
+		inSwipe = true;
+		swipeStart = position;
+		swipeSamples = 0;
+		prev = 0;
+		runLength = 0;
+	}
+
+	/**
+	 * append samples to the current swipe
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @throws IOException
+	 * @throws IllegalStateException if no swipe has been begun
+	 */
+	public void write(short[] buffer, int offset, int length) throws IOException{
+		if (!inSwipe){
+			throw new IllegalStateException("write called outside of beginSwipe/endSwipe");
+		}
+		int end = offset + length;
+		short val;
+		for (int i = offset; i < end; i++){
+			val = buffer[i];
+			if (Math.abs(val) <= squelchLevel){
+				if (runLength < CaptureArchive.MIN_RUN){
+					pending[runLength] = val;
+				}
+				runLength++;
+				if (runLength == Integer.MAX_VALUE >>> 2){
+					flushRun();
+				}
+			}else{
+				if (runLength > 0){
+					flushRun();
+				}
+				writeSample(val);
+			}
+		}
+		swipeSamples += length;
+	}
+
+	/**
+	 * finish the current swipe and add it to the index.  Does nothing if no swipe is in progress.
+	 * @throws IOException
+	 */
+	public void endSwipe() throws IOException{
+		if (!inSwipe){
+			return;
+		}
+		if (runLength > 0){
+			flushRun();
+		}
+		inSwipe = false;
+		if (swipeCount == offsets.length){
+			int newLength = offsets.length * 2;
+			long[] newOffsets = new long[newLength];
+			int[] newByteLengths = new int[newLength];
+			int[] newSampleCounts = new int[newLength];
+			System.arraycopy(offsets, 0, newOffsets, 0, swipeCount);
+			System.arraycopy(byteLengths, 0, newByteLengths, 0, swipeCount);
+			System.arraycopy(sampleCounts, 0, newSampleCounts, 0, swipeCount);
+			offsets = newOffsets;
+			byteLengths = newByteLengths;
+			sampleCounts = newSampleCounts;
+		}
+		offsets[swipeCount] = swipeStart;
+		byteLengths[swipeCount] = (int)(position - swipeStart);
+		sampleCounts[swipeCount] = swipeSamples;
+		swipeCount++;
+	}
+
+	/**
+	 * end any swipe in progress, write the index and trailer, and close the underlying stream
+	 * @throws IOException
+	 */
+	public void close() throws IOException{
+		endSwipe();
+		long indexOffset = position;
+		out.writeInt(swipeCount);
+		for (int i = 0; i < swipeCount; i++){
+			out.writeLong(offsets[i]);
+			out.writeInt(byteLengths[i]);
+			out.writeInt(sampleCounts[i]);
+		}
+		out.writeLong(indexOffset);
+		out.writeInt(CaptureArchive.MAGIC);
+		out.close();
+	}
+
+	private void writeSample(int val) throws IOException{
+		position += CaptureArchive.writeVarint(out, CaptureArchive.zigzag(val - prev) << 1);
+		prev = val;
+	}
+
+	private void flushRun() throws IOException{
+		if (runLength >= CaptureArchive.MIN_RUN){
+			position += CaptureArchive.writeVarint(out, (runLength << 1) | 1);
+			prev = 0;
+		}else{
+			for (int i = 0; i < runLength; i++){
+				writeSample(pending[i]);
+			}
+		}
+		runLength = 0;
+	}
+
+}
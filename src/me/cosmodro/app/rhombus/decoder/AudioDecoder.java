@@ -3,7 +3,6 @@ package me.cosmodro.app.rhombus.decoder;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 //commented out for independence from android.  But it's convenient, so I left it easy to enable.
@@ -18,14 +17,44 @@ public class AudioDecoder {
 	public static int TRACK_2_BITLENGTH = 5;
 	public static int TRACK_2_BASECHAR = 48;
 	
+	//check the decode deadline once every this many samples or (plus one) peaks
+	private static final int DEADLINE_CHECK_INTERVAL = 4096;
+	private static final int DEADLINE_CHECK_MASK = DEADLINE_CHECK_INTERVAL - 1;
+	
+	//the threshold adapts per block of 2^LEVEL_BLOCK_SHIFT samples, to the peaks within LEVEL_WINDOW blocks either side
+	private static final int LEVEL_BLOCK_SHIFT = 8;
+	private static final int LEVEL_WINDOW = 4;
+	//fewer peaks than this in a window isn't a trustworthy local level, so the global one is used instead
+	private static final int LEVEL_MIN_PEAKS = 4;
+	
+	//a full track 1 is under 800 bits, so 2 peaks per bit covers it
+	private static final int MAX_PEAKS = 2048;
+	
+	private static final int WARM_UP_ITERATIONS = 200;
+	private static final String WARM_UP_TRACK_1 = "%B4111111111111111^WARMUP/TEST^4912101000000000000?";
+	private static final String WARM_UP_TRACK_2 = ";4111111111111111=49121010000000000000?";
+	
 	private boolean debugging = true;
 
 	private int silenceLevel = 500; //arbitrary level below which we consider "silent"
 	private int minLevel = silenceLevel; //adaptive minimum level, should vary with each swipe.
 	private double smoothing = 0.1;
 	private double minLevelCoeff = 0.5;
+	private SampleFilter filters; //front end filtering, applied after recentering
+	private boolean customFilters = false;
+	private boolean keepContentString = true;
+	
+	//reused between decodes, so steady state decoding doesn't allocate or grow them
+	private int[] work = new int[0];
+	private ArrayList<Peak> peaks = new ArrayList<Peak>();
+	private ClockRecovery clock = new ClockRecovery();
+	//running totals of positive peaks up to each level block, and the threshold for each block
+	private long[] peakSums = new long[1];
+	private int[] peakCounts = new int[1];
+	private int[] levels = new int[0];
 	
 	public AudioDecoder(){
+		filters = createDefaultFilters();
 	}
 
 	/**
@@ -73,41 +102,323 @@ public class AudioDecoder {
 		return smoothing;
 	}
 
+	/**
+	 * set the smoothing of the default low-pass filter: the weight given to the previous filtered sample
+	 * versus the new raw one.  Has no effect on filters set with setFilters.
+	 * Defaults to 0.1
+	 * @param smoothing
+	 * @throws IllegalArgumentException if passed a value outside of 0 (inclusive) to 1 (exclusive)
+	 */
 	public void setSmoothing(double smoothing) {
+		if (smoothing < 0 || smoothing >= 1){
+			throw new IllegalArgumentException("smoothing must be in the range [0, 1): "+smoothing);
+		}
 		this.smoothing = smoothing;
+		if (!customFilters){
+			filters = createDefaultFilters();
+		}
 	}
 
-	private List<Integer> preprocessData(List<Integer> data){
-		data = recenter(data);
-		data = smooth(data);
-		return data;
+	/**
+	 * get the filter applied to samples before decoding
+	 * @return
+	 */
+	public SampleFilter getFilters() {
+		return filters;
+	}
+
+	/**
+	 * set the filter (usually a FilterChain) applied to samples before decoding, or null to restore the default:
+	 * a LowPassFilter using the smoothing setting.
+	 * For captures whose DC offset wanders during the swipe, put a DcBlockingFilter ahead of the low-pass filter.
+	 * It is not in the default chain because at its default pole it also eats the long bit cells of slow swipes;
+	 * see DcBlockingFilter.
+	 * The filter is reset before each capture.
+	 * @param filters
+	 */
+	public void setFilters(SampleFilter filters) {
+		if (filters == null){
+			this.customFilters = false;
+			this.filters = createDefaultFilters();
+		}else{
+			this.customFilters = true;
+			this.filters = filters;
+		}
+	}
+
+	/**
+	 * get whether decoded results carry their content as a String as well as a char buffer
+	 * @return
+	 */
+	public boolean isKeepContentString() {
+		return keepContentString;
+	}
+
+	/**
+	 * set whether decoded results carry their content as a String as well as a char buffer.
+	 * Turn off to avoid leaving immutable copies of card data on the heap; read the content with
+	 * SwipeData.getChars() or a TrackParser instead, and SwipeData.clear() it when done.
+	 * Defaults to true
+	 * @param keepContentString
+	 */
+	public void setKeepContentString(boolean keepContentString) {
+		this.keepContentString = keepContentString;
+	}
+
+	private SampleFilter createDefaultFilters(){
+		return new LowPassFilter(smoothing);
+	}
+
+	private void preprocessData(int[] data, int length, DecodeDeadline deadline){
+		recenter(data, length, deadline);
+		if (deadline.isExpired()){
+			return;
+		}
+		filter(data, length, deadline);
+	}
+
+	/**
+	 * size the decoder's reusable buffers for captures up to the given length, so the first decode doesn't have to grow them.
+	 * @param maxSamples longest capture expected, in samples; for an AudioMonitor, the length of its capture buffer
+	 */
+	public void preallocate(int maxSamples){
+		int length = Math.max(0, maxSamples);
+		work(length);
+		levelBlocks(length);
+		peaks.ensureCapacity(MAX_PEAKS);
+	}
+
+	/**
+	 * get the reusable work buffer, grown to at least length if needed
+	 */
+	private int[] work(int length){
+		if (work.length < length){
+			work = new int[length];
+		}
+		return work;
+	}
+
+	/**
+	 * get the number of level blocks covering length samples, growing the per block buffers to fit if needed
+	 */
+	private int levelBlocks(int length){
+		int blocks = (length + (1 << LEVEL_BLOCK_SHIFT) - 1) >> LEVEL_BLOCK_SHIFT;
+		if (levels.length < blocks){
+			levels = new int[blocks];
+			peakSums = new long[blocks + 1];
+			peakCounts = new int[blocks + 1];
+		}
+		return blocks;
+	}
+
+	/**
+	 * run every decode path over synthetic track 1 and track 2 swipes, so the JIT compiles them before a real swipe arrives.
+	 * Uses this decoder, so must not run at the same time as another decode on it; see warmUpInBackground.
+	 * @param frequency sample rate to synthesize at
+	 * @param iterations number of times to decode each swipe.  A few hundred is typically enough to reach compiled code.
+	 */
+	public void warmUp(int frequency, int iterations){
+		SwipeSynthesizer synth = new SwipeSynthesizer(frequency);
+		synth.setNoise(silenceLevel / 4, 0);
+		short[][] swipes = {
+			synth.track1(WARM_UP_TRACK_1),
+			synth.track2(WARM_UP_TRACK_2)
+		};
+		//as AudioMonitor hands them over
+		List<List<Integer>> lists = new ArrayList<List<Integer>>(swipes.length);
+		for (short[] swipe : swipes){
+			List<Integer> list = new ArrayList<Integer>(swipe.length);
+			for (short s : swipe){
+				list.add(Integer.valueOf(s));
+			}
+			lists.add(list);
+		}
+		TrackParser parser = new TrackParser();
+		CardTrack track = new CardTrack();
+		for (int n = 0; n < iterations; n++){
+			for (int i = 0; i < swipes.length; i++){
+				short[] swipe = swipes[i];
+				//the audio monitor's scans
+				SampleKernels.indexOfLoudRun(swipe, 0, swipe.length, silenceLevel, 5);
+				//the usual paths, from a monitor's List and from a stream's buffer
+				parser.parse(processData(lists.get(i), new DecodeDeadline()), track);
+				SwipeData data = processData(swipe, 0, swipe.length, new DecodeDeadline());
+				parser.parse(data, track);
+				//and the fallbacks, which only run on bad reads
+				int[] samples = work(swipe.length);
+				SampleKernels.widen(swipe, 0, swipe.length, samples);
+				preprocessData(samples, swipe.length, new DecodeDeadline());
+				adaptLevels(swipe.length, getMinLevel(samples, swipe.length, minLevelCoeff, new DecodeDeadline()));
+				BitSet bits = decodePeaksToBitSet(getPeaks(samples, swipe.length, new DecodeDeadline()), new DecodeDeadline());
+				decodeToASCII(bits);
+				decodeToASCII(reverse(bits));
+			}
+		}
+	}
+
+	/**
+	 * warm up the decode paths on a background thread, with a private decoder of the same settings.
+	 * Safe to call while this decoder is in use.
+	 * Filters are stateful, so a decoder with custom filters can't share them with the warm-up; the private decoder
+	 * runs the default front end instead.  Use warmUpInBackground(int, SampleFilter) with a fresh instance of the
+	 * custom chain to warm that up too.
+	 * @param frequency sample rate to synthesize at
+	 * @return the started (daemon) thread
+	 */
+	public Thread warmUpInBackground(int frequency){
+		return warmUpInBackground(frequency, null);
+	}
+
+	/**
+	 * warm up the decode paths on a background thread, with a private decoder of the same settings and the given filters.
+	 * Safe to call while this decoder is in use.
+	 * @param frequency sample rate to synthesize at
+	 * @param filters a separate instance of the filters this decoder runs, not shared with it, or null for the default front end
+	 * @return the started (daemon) thread
+	 */
+	public Thread warmUpInBackground(final int frequency, SampleFilter filters){
+		final AudioDecoder copy = new AudioDecoder();
+		copy.setSilenceLevel(silenceLevel);
+		copy.setSmoothing(smoothing);
+		copy.setMinLevelCoeff(minLevelCoeff);
+		copy.setKeepContentString(keepContentString);
+		copy.setFilters(filters);
+		Thread t = new Thread("rhombus-warm-up"){
+			public void run(){
+				copy.warmUp(frequency, WARM_UP_ITERATIONS);
+			}
+		};
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+		return t;
 	}
 
 	public SwipeData processData(List<Integer> samples){
+		return processData(samples, new DecodeDeadline());
+	}
+
+	/**
+	 * decode samples, giving up when the deadline expires.
+	 * The deadline is checked between decode strategies and periodically within them.  On expiry,
+	 * the best result found so far (possibly from a partly decoded strategy) is returned, marked timed out.
+	 * @param samples
+	 * @param deadline time budget or cancellation token for this decode
+	 * @return SwipeData, with isTimedOut() true if the decode did not finish
+	 */
+	public SwipeData processData(List<Integer> samples, DecodeDeadline deadline){
+		int length = samples.size();
+		int[] data = work(length);
+		SampleKernels.toArray(samples, data);
+		return decode(data, length, samples, deadline);
+	}
+
+	/**
+	 * decode samples straight from a primitive buffer, without boxing them.
+	 * The raw field of the result is left empty, since the buffer may be reused by the caller.
+	 * @param samples
+	 * @param offset index of first sample
+	 * @param length number of samples
+	 * @param deadline time budget or cancellation token for this decode
+	 * @return SwipeData, with isTimedOut() true if the decode did not finish
+	 */
+	public SwipeData processData(short[] samples, int offset, int length, DecodeDeadline deadline){
+		int[] data = work(length);
+		SampleKernels.widen(samples, offset, offset + length, data);
+		return decode(data, length, null, deadline);
+	}
+
+	/**
+	 * @param data samples, which are modified in place
+	 * @param length number of samples in data
+	 * @param samples the samples as given by the caller, to set as raw on the result, or null
+	 * @param deadline
+	 * @return
+	 */
+	private SwipeData decode(int[] data, int length, List<Integer> samples, DecodeDeadline deadline){
 		debug(TAG, "processing data");
-    	List<Integer> data = preprocessData(samples);
+    	preprocessData(data, length, deadline);
+    	if (deadline.isExpired()){
+    		return timedOut(null, samples);
+    	}
 		
 		//first pass, iterate through bytes, get avg peak level
 		//set minLevel to min% of avg peak
+		int level = getMinLevel(data, length, minLevelCoeff, deadline);
+		if (deadline.isExpired()){
+			return timedOut(null, samples);
+		}
+		return decodeMeasured(data, length, level, samples, deadline);
+	}
+
+	/**
+	 * run the front end (recentering and filters) over samples in place, as processData would.
+	 * For tools which reuse preprocessed captures across many decodes.
+	 * @param data
+	 */
+	void preprocess(int[] data){
+		preprocessData(data, data.length, new DecodeDeadline());
+	}
+
+	/**
+	 * get the decoding threshold processData would use for preprocessed samples
+	 * @param data
+	 * @return
+	 */
+	int computeMinLevel(int[] data){
+		return getMinLevel(data, data.length, minLevelCoeff, new DecodeDeadline());
+	}
+
+	/**
+	 * run the decode strategies over preprocessed samples, with a given threshold
+	 * @param data preprocessed samples
+	 * @param length number of samples in data
+	 * @param level threshold, as from computeMinLevel
+	 * @param samples the samples as given by the caller, to set as raw on the result, or null
+	 * @param deadline
+	 * @return
+	 */
+	SwipeData decodePreprocessed(int[] data, int length, int level, List<Integer> samples, DecodeDeadline deadline){
+		measurePeaks(data, length, deadline);
+		return decodeMeasured(data, length, level, samples, deadline);
+	}
+
+	/**
+	 * run the decode strategies over preprocessed samples whose peaks have been measured
+	 */
+	private SwipeData decodeMeasured(int[] data, int length, int level, List<Integer> samples, DecodeDeadline deadline){
         SwipeData result = new SwipeData();
         result.setContent("Unevaluated.  This shouldn't happen");
         result.setBadRead();
-       
-		minLevel = getMinLevel(data, minLevelCoeff);
+        SwipeData best = null; //best result so far, returned if we run out of time
+        minLevel = level;
+        adaptLevels(length, level);
 
 		debug(TAG, "first, the zero crossing method");
-		BitSet bits = decodeToBitSet(data);
+		BitSet bits = decodeToBitSet(data, length, deadline);
 		result = decodeToASCII(bits);
+		best = better(best, result);
+		if (result.isBadRead() && deadline.isExpired()){
+			return timedOut(best, samples);
+		}
 		if (result.isBadRead()){
 			debug(TAG, "bad read, lets try it backwards");
 			result = decodeToASCII(reverse(bits));
+			best = better(best, result);
+			if (result.isBadRead() && deadline.isExpired()){
+				return timedOut(best, samples);
+			}
 		}
 
 		if (result.isBadRead()){
 			//second pass, decode to bitset
-			bits = decodePeaksToBitSet(getPeaks(data, minLevel));
+			bits = decodePeaksToBitSet(getPeaks(data, length, deadline), deadline);
 			debug(TAG, "and now the peaks method");
 			result = decodeToASCII(bits);
+			best = better(best, result);
+			if (result.isBadRead() && deadline.isExpired()){
+				return timedOut(best, samples);
+			}
 		}
         
 		if (result.isBadRead()){
@@ -115,59 +426,133 @@ public class AudioDecoder {
 			result = decodeToASCII(reverse(bits));
 		}
 
-		result.raw = samples;
+		if (samples != null){
+			result.raw = samples;
+		}
 		return result;
 		
 	}
 	
 	/**
-	 * given a list of samples, get the average value, then subtract that from each sample
-	 * @param List<Integer> data
+	 * pick the more useful of two decode results: a good read over a bad one, otherwise the one with more good characters.
+	 * @param a may be null
+	 * @param b
 	 * @return
 	 */
-	private List<Integer> recenter(List<Integer> data){
-		List<Integer> samples = new ArrayList<Integer>(data.size());
-		int sum = 0;
-    	for (Integer val : data){
-    		sum += val;
+	private SwipeData better(SwipeData a, SwipeData b){
+		if (a == null){
+			return b;
 		}
-		int avg = Math.round(sum/data.size());
-		for (Integer s : data){
-			samples.add(s - avg);
+		if (a.isBadRead() != b.isBadRead()){
+			return a.isBadRead() ? b : a;
 		}
-		return samples;
+		int aGood = a.length() - a.getBadCharIndices().size();
+		int bGood = b.length() - b.getBadCharIndices().size();
+		return (bGood > aGood) ? b : a;
+	}
+	
+	private SwipeData timedOut(SwipeData best, List<Integer> samples){
+		debug(TAG, "decode deadline expired");
+		SwipeData result = best;
+		if (result == null){
+			result = new SwipeData();
+			result.setBadRead();
+		}
+		result.setTimedOut();
+		if (samples != null){
+			result.raw = samples;
+		}
+		return result;
 	}
 	
 	/**
-	 * apply smoothing to the data by setting each datapoint to a weighted average of the previous point and its raw value
+	 * given samples, get the average value, then subtract that from each sample, in place
 	 * @param data
-	 * @return
+	 * @param length number of samples in data
+	 * @param deadline stops early, leaving data partly recentered, if expired
+	 */
+	private void recenter(int[] data, int length, DecodeDeadline deadline){
+		long sum = 0;
+		for (int from = 0; from < length; from += DEADLINE_CHECK_INTERVAL){
+			if (deadline.isExpired()){
+				return;
+			}
+			sum += SampleKernels.sum(data, from, Math.min(length, from + DEADLINE_CHECK_INTERVAL));
+		}
+		int avg = (int)(sum/length);
+		for (int from = 0; from < length; from += DEADLINE_CHECK_INTERVAL){
+			if (deadline.isExpired()){
+				return;
+			}
+			SampleKernels.offset(data, from, Math.min(length, from + DEADLINE_CHECK_INTERVAL), -avg);
+		}
+	}
+	
+	/**
+	 * run the front end filters over the data, in place
+	 * @param data
+	 * @param length number of samples in data
+	 * @param deadline stops early, leaving data partly filtered, if expired
 	 */
-	private List<Integer> smooth(List<Integer> data){
-		debug(TAG, "smoothing data.  smoothing param is "+smoothing);
-		List<Integer> samples = new ArrayList<Integer>(data.size());
-		Integer lastVal = data.get(0);
-		for (Integer val : data){
-			samples.add((int) ((lastVal*smoothing) + (val * (1-smoothing))));
+	private void filter(int[] data, int length, DecodeDeadline deadline){
+		debug(TAG, "filtering data with "+filters);
+		filters.reset();
+		for (int from = 0; from < length; from += DEADLINE_CHECK_INTERVAL){
+			if (deadline.isExpired()){
+				return;
+			}
+			filters.process(data, from, Math.min(length, from + DEADLINE_CHECK_INTERVAL));
 		}
-		return samples;
 	}
 	
-	private int getMinLevel(List<Integer> data, double coeff){
+	/**
+	 * get the global threshold: coeff times the average positive peak, or silenceLevel if there are no peaks.
+	 * Also measures the peaks of each level block, for adaptLevels.
+	 */
+	private int getMinLevel(int[] data, int length, double coeff, DecodeDeadline deadline){
+		measurePeaks(data, length, deadline);
+		int blocks = levelBlocks(length);
+		int peakcount = peakCounts[blocks];
+		if (peakcount > 0){
+			int level =(int)Math.floor((int)(peakSums[blocks] / peakcount) * coeff); 
+			debug(TAG, "returning "+level+" for minLevel");
+			debug(TAG, "there were "+peakcount+" peaks");
+			return level;
+		}else{
+			return silenceLevel;
+		}
+	}
+
+	/**
+	 * find the positive peaks above silenceLevel, and total them per level block, into peakSums and peakCounts.
+	 * Entry b of each holds the total for all blocks before b.
+	 */
+	private void measurePeaks(int[] data, int length, DecodeDeadline deadline){
+		int blocks = levelBlocks(length);
+		long[] sums = peakSums;
+		int[] counts = peakCounts;
+		for (int b = 0; b <= blocks; b++){
+			sums[b] = 0;
+			counts[b] = 0;
+		}
 		int lastval = 0;
-		int peakcount = 0;
-		int peaksum = 0;
 		int peaktemp = 0; //value to store highest peak value between zero crossings
     	boolean hitmin = false;
-    	for (Integer val : data){
+    	int val;
+    	for (int i = 0; i < length; i++){
+    		if (((i & DEADLINE_CHECK_MASK) == 0) && deadline.isExpired()){
+    			break;
+    		}
+    		val = data[i];
     		if (val > 0 && lastval <= 0){
     			//we're coming from negative to positive, reset peaktemp
     			peaktemp = 0;
     			hitmin = false;
     		}else if (val < 0 && lastval >= 0 && hitmin){
-    			//we're going from positive to negative, so add peaktemp to peaksum
-    			peaksum += peaktemp;
-    			peakcount++;
+    			//we're going from positive to negative, so add peaktemp to its block
+    			int b = (i >> LEVEL_BLOCK_SHIFT) + 1;
+    			sums[b] += peaktemp;
+    			counts[b]++;
     		}
     		if ((val > 0) &&(lastval > val) && (lastval > silenceLevel) && (val > peaktemp)){
     			//new peak, higher than last peak since zero
@@ -176,36 +561,81 @@ public class AudioDecoder {
     			peaktemp = val;
     		}
     		lastval = val;
+    		if (!hitmin && val <= silenceLevel && i + 1 < length && data[i + 1] <= silenceLevel){
+    			//with no peak pending, nothing changes until a sample rises above silenceLevel: skip the quiet run
+    			int loud = SampleKernels.indexOfLoud(data, i + 1, length, silenceLevel + 1);
+    			if (loud < 0){
+    				break;
+    			}
+    			i = loud - 1;
+    			lastval = data[i];
+    		}
 		}
-		
-		if (peakcount > 0){
-			int level =(int)Math.floor((peaksum / peakcount) * coeff); 
-			debug(TAG, "returning "+level+" for minLevel");
-			debug(TAG, "there were "+peakcount+" peaks");
-			return level;
-		}else{
-			return silenceLevel;
+		for (int b = 1; b <= blocks; b++){
+			sums[b] += sums[b - 1];
+			counts[b] += counts[b - 1];
+		}
+	}
+
+	/**
+	 * set the threshold for each level block from measured peaks: the global level, scaled by how the average peak
+	 * in a window around the block compares to the global average.  This follows amplitude changes along the swipe.
+	 * @param length number of samples
+	 * @param level global threshold
+	 */
+	private void adaptLevels(int length, int level){
+		int blocks = levelBlocks(length);
+		long[] sums = peakSums;
+		int[] counts = peakCounts;
+		double globalAvg = (counts[blocks] > 0) ? (double)sums[blocks] / counts[blocks] : 0;
+		for (int b = 0; b < blocks; b++){
+			int lo = Math.max(0, b - LEVEL_WINDOW);
+			int hi = Math.min(blocks, b + LEVEL_WINDOW + 1);
+			int count = counts[hi] - counts[lo];
+			if (count < LEVEL_MIN_PEAKS || globalAvg <= 0){
+				levels[b] = level;
+			}else{
+				//only ever lowered: a louder stretch still clears the global level, and raising it there would cost weaker peaks
+				levels[b] = Math.min(level, (int)(level * ((double)(sums[hi] - sums[lo]) / count) / globalAvg));
+			}
 		}
 	}
 		
 	/**
-	 * get all peaks above threshold
+	 * get all peaks above the threshold for their level block
 	 * a peak is a positive maximum or a negative minimum
 	 * @param bytes
 	 * @return
 	 */
-	private List<Peak> getPeaks(List<Integer> data, int threshold){
-		LinkedList<Peak> toreturn = new LinkedList<Peak>();
+	private List<Peak> getPeaks(int[] data, int length, DecodeDeadline deadline){
+		ArrayList<Peak> toreturn = peaks;
+		toreturn.clear();
     	//current sample index
-    	int i = -1;
+    	int i = 0;
     	int lastDp = 0;
     	int beforeThatDp = 0;
-    	for (Integer dp : data){
-    		i++;
-    		if (Math.abs(dp) < threshold){
-    			//if it's not a great enough level, we don't care if it's a min/max or not.  move on.
+    	int dp;
+    	int threshold = 0;
+    	int chunkEnd = 0;
+    	int deadlineEnd = 0;
+    	while (i < length){
+    		if (i >= chunkEnd){
+    			if (i >= deadlineEnd){
+    				if (deadline.isExpired()){
+    					break;
+    				}
+    				deadlineEnd = Math.min(length, i + DEADLINE_CHECK_INTERVAL);
+    			}
+    			threshold = levels[i >> LEVEL_BLOCK_SHIFT];
+    			chunkEnd = Math.min(deadlineEnd, ((i >> LEVEL_BLOCK_SHIFT) + 1) << LEVEL_BLOCK_SHIFT);
+    		}
+    		//if it's not a great enough level, we don't care if it's a min/max or not.  skip ahead.
+    		i = SampleKernels.indexOfLoud(data, i, chunkEnd, threshold);
+    		if (i < 0){
+    			i = chunkEnd;
     			continue;
     		}
+    		dp = data[i];
     		
     		//yes, I know these could be one condition.  I think it's more readable like this.
     		if ((dp > 0) && (dp < lastDp) && (lastDp >= beforeThatDp)){ //positive maximum
@@ -216,7 +646,7 @@ public class AudioDecoder {
     		//if not a qualifying peak, move on.
 			beforeThatDp = lastDp;
 			lastDp = dp;
-    		
+			i++;
     	}
 		debug(TAG, "got "+toreturn.size()+" peaks");
 		return toreturn;
@@ -229,6 +659,16 @@ public class AudioDecoder {
 	 * @return
 	 */
 	public BitSet decodePeaksToBitSet(List<Peak> peaks){
+		return decodePeaksToBitSet(peaks, new DecodeDeadline());
+	}
+	
+	/**
+	 * convert list of Peaks to BitSet, stopping early with the bits decoded so far if the deadline expires.
+	 * @param peaks
+	 * @param deadline
+	 * @return
+	 */
+	public BitSet decodePeaksToBitSet(List<Peak> peaks, DecodeDeadline deadline){
 		BitSet result = new BitSet(); //Todo: determine if setting initial capacity is worth it.
 		debug(TAG, "there are "+peaks.size()+" peaks to decode");
 		Iterator<Peak> piterator = peaks.iterator();
@@ -239,17 +679,19 @@ public class AudioDecoder {
 		Peak lastPeak = piterator.next();
 		debug(TAG, "initial peak:"+lastPeak);
 		Peak peak;
-		int oneinterval = -1; //interval between transitions for a 1 bit.  There are two transitions per 1 bit, 1 per 0.
-		//so if interval is around 15, then if the space between transitions is 17, 15, that's a 1.  but if that was 32, that'd be 0.
+		clock.reset();
 		//the pattern starts with a self-clocking set of 0s.  We'll discard the first few, just because.
 		int introDiscard = 1;
 		int discardCount = 0;
 		boolean flip;
     	int resultBitCount = 0;
     	int peakCount = 1; //for first we already got
-		boolean needHalfOne = false; //if the last interval was the first half of a 1, the next better be the second half
 		//iterate through peaks
 		while(piterator.hasNext()){
+			if (((peakCount & DEADLINE_CHECK_MASK) == 0) && deadline.isExpired()){
+				debug(TAG, "deadline expired decoding peaks");
+				break;
+			}
 			peak = piterator.next();
 			flip = !peak.sameSign(lastPeak);
 			debug(TAG, "peak:"+peak+" flip:"+flip+" peakcount:"+peakCount++);
@@ -259,34 +701,13 @@ public class AudioDecoder {
 					discardCount++;
 				}else{
 					int sinceLast = peak.index - lastPeak.index;
-					if (oneinterval == -1) {
-						debug(TAG, "set oneinterval");
-						oneinterval = sinceLast/2;
-					}else {
-						boolean oz = isOne(sinceLast, oneinterval);
-						debug(TAG, "diff (peaks): " + sinceLast+ " oneinterval: "+oneinterval+" idx:"+peak.index+" one?: " + oz);
-						if (oz) {
-							if (needHalfOne) {
-								oneinterval = (oneinterval + sinceLast)/2;
-								result.set(resultBitCount, true);
-								resultBitCount++;
-								needHalfOne = false; //don't need next to be
-							}else {
-								needHalfOne = true;
-							}
-						}else {
-							if (needHalfOne) {
-								debug(TAG, "got a 0 where expected a 1.  result so far: " + result);
-								break;
-								//throw new Error("parse exception, did not get second half of expected 1 value");
-							}else {
-								oneinterval = (oneinterval + (sinceLast / 2))/2;
-								//group+="0";
-								//debug(TAG, "0");
-								result.set(resultBitCount, false);
-								resultBitCount++;
-							}
-						}
+					int bit = clock.next(sinceLast);
+					if (bit == ClockRecovery.LOST){
+						debug(TAG, "got a 0 where expected a 1.  result so far: " + result);
+						break;
+					}else if (bit != ClockRecovery.NO_BIT){
+						result.set(resultBitCount, bit == ClockRecovery.ONE);
+						resultBitCount++;
 					}
 				}
 				lastPeak = peak;
@@ -303,6 +724,22 @@ public class AudioDecoder {
 	 * @return BitSet representing logical signal
 	 */
 	public BitSet decodeToBitSet(List<Integer> data){
+		return decodeToBitSet(SampleKernels.toArray(data), new DecodeDeadline());
+	}
+	
+	/**
+	 * convert samples to BitSet, stopping early with the bits decoded so far if the deadline expires.
+	 * @param data
+	 * @param deadline
+	 * @return
+	 */
+	public BitSet decodeToBitSet(int[] data, DecodeDeadline deadline){
+		measurePeaks(data, data.length, deadline);
+		adaptLevels(data.length, minLevel);
+		return decodeToBitSet(data, data.length, deadline);
+	}
+	
+	private BitSet decodeToBitSet(int[] data, int length, DecodeDeadline deadline){
 		BitSet result = new BitSet(); //Todo: determine if setting initial capacity is worth it.
     	// Create a DataOuputStream to write the audio data 
     	//current sample index
@@ -311,58 +748,50 @@ public class AudioDecoder {
 		int lastSign = -1;
 		int lasti = 0;
 		int first = 0;
-		int oneinterval = -1; //interval between transitions for a 1 bit.  There are two transitions per 1 bit, 1 per 0.
-		//so if interval is around 15, then if the space between transitions is 17, 15, that's a 1.  but if that was 32, that'd be 0.
+		clock.reset();
 		//the pattern starts with a self-clocking set of 0s.  We'll discard the first few, just because.
 		int introDiscard = 1;
 		int discardCount = 0;
-		boolean needHalfOne = false; //if the last interval was the first half of a 1, the next better be the second half
-		int expectedParityBit = 1; //invert every 1 bit.  parity bit should make number of 1s in group odd.
-		for (Integer dp : data){
-			if ((dp * lastSign < 0) && (Math.abs(dp) > minLevel)) {
-				if (first == 0) {
-					first = i;
-					debug(TAG,"set first to: " + first);
-				}else if (discardCount < introDiscard) {
-					discardCount++;
-				}else {
-					int sinceLast = i - lasti;
-					if (oneinterval == -1) {
-						oneinterval = sinceLast/2;
-					}else {
-						boolean oz = isOne(sinceLast, oneinterval);
-						debug(TAG, "diff: " + sinceLast+ " oneinterval: "+oneinterval+" idx:"+i+" one?: " + oz);
-						if (oz) {
-							oneinterval = sinceLast;
-							if (needHalfOne) {
-								expectedParityBit = 1-expectedParityBit;
-								//debug(TAG, "1");
-								result.set(resultBitCount, true);
-								resultBitCount++;
-								needHalfOne = false; //don't need next to be
-							}else {
-								needHalfOne = true;
-							}
-						}else {
-							oneinterval = sinceLast / 2;
-							if (needHalfOne) {
-								//debug(TAG, "result so far: " + result);
-								break;
-								//throw new Error("parse exception, did not get second half of expected 1 value");
-							}else {
-								//group+="0";
-								//debug(TAG, "0");
-								result.set(resultBitCount, false);
-								resultBitCount++;
-							}
-						}
+		int level = 0;
+		int chunkEnd = 0;
+		int deadlineEnd = 0;
+		while (i < length){
+			if (i >= chunkEnd){
+				if (i >= deadlineEnd){
+					if (deadline.isExpired()){
+						debug(TAG, "deadline expired decoding zero crossings");
+						break;
 					}
+					deadlineEnd = Math.min(length, i + DEADLINE_CHECK_INTERVAL);
+				}
+				level = levels[i >> LEVEL_BLOCK_SHIFT];
+				chunkEnd = Math.min(deadlineEnd, ((i >> LEVEL_BLOCK_SHIFT) + 1) << LEVEL_BLOCK_SHIFT);
+			}
+			//skip to the next sample past the local level on the other side of zero
+			i = SampleKernels.nextCrossing(data, i, chunkEnd, lastSign, level);
+			if (i < 0){
+				i = chunkEnd;
+				continue;
+			}
+			if (first == 0) {
+				first = i;
+				debug(TAG,"set first to: " + first);
+			}else if (discardCount < introDiscard) {
+				discardCount++;
+			}else {
+				int sinceLast = i - lasti;
+				int bit = clock.next(sinceLast);
+				if (bit == ClockRecovery.LOST){
+					//debug(TAG, "result so far: " + result);
+					break;
+				}else if (bit != ClockRecovery.NO_BIT){
+					result.set(resultBitCount, bit == ClockRecovery.ONE);
+					resultBitCount++;
 				}
-				lasti = i;
-				lastSign *= -1;
 			}
+			lasti = i;
+			lastSign *= -1;
 			i++;
-    		
     	}
     	debug(TAG, "raw binary: "+dumpString(result));
 		return result;
@@ -416,13 +845,13 @@ public class AudioDecoder {
 	 * @return SwipeData
 	 */
 	public SwipeData decodeToASCII(BitSet bits, int beginIndex, int bitsPerChar, int baseChar){
-		StringBuilder sb = new StringBuilder();
 		SwipeData toreturn = new SwipeData();
 		int i = beginIndex;
 		char endSentinel = '?'; //for both!
 		int charCount = 0;
 		boolean sentinelFound = false;
 		int size = bits.size(); //actual number of bits in bits, but we may not need all of them because we don't care after the end sentinel
+		char[] chars = new char[Math.max(0, size - beginIndex) / (bitsPerChar + 1) + 1];
 		int letterVal = 0;
 		char letter;
 		boolean expectedParity;
@@ -442,7 +871,7 @@ public class AudioDecoder {
 				exp++;
 			}
 			letter = decode(letterVal, baseChar);
-			sb.append(letter);
+			chars[charCount] = letter;
 			bit = bits.get(i);
 			if (bit != expectedParity){
 				debug(TAG, "addBadCharIndex "+charCount);
@@ -454,7 +883,10 @@ public class AudioDecoder {
 				sentinelFound = true;
 			}
 		}
-		toreturn.setContent(sb.toString());
+		toreturn.setContent(chars, charCount);
+		if (keepContentString){
+			toreturn.content = new String(chars, 0, charCount);
+		}
 		return toreturn;
 	}
    
@@ -464,16 +896,6 @@ public class AudioDecoder {
     	return decoded;
     }
     
-	private boolean isOne(int actualInterval, int oneInterval) {
-		int diffToOI = Math.abs(actualInterval - oneInterval);
-		int diffToZI = Math.abs(actualInterval - (2 * oneInterval));
-		if (diffToOI < diffToZI) {
-			return true;
-		}else {
-			return false;
-		}
-	}
-	
 	private BitSet reverse(BitSet bits){
 		int size = bits.size();
 		BitSet toreturn = new BitSet(size);
@@ -0,0 +1,112 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import java.util.Arrays;
+
+/**
+ * the fields of a track 1 or track 2 swipe, as views over the decoder's character buffer.
+ * Filled in by TrackParser.  An instance may be reused for many swipes; the views are repointed, not reallocated.
+ *
+ * Views are only meaningful when getError() is NONE or a validation error (BAD_LUHN, BAD_EXPIRY, BAD_SERVICE_CODE);
+ * on a format error, fields after the point of failure are empty.
+ */
+public class CardTrack {
+
+	public enum ParseError {
+		NONE,
+		BAD_PARITY,
+		NO_START_SENTINEL,
+		NO_END_SENTINEL,
+		BAD_FORMAT_CODE,
+		BAD_PAN,
+		BAD_NAME,
+		BAD_EXPIRY,
+		BAD_SERVICE_CODE,
+		BAD_LUHN
+	}
+
+	public int track; //1 or 2, or 0 if the start sentinel was not recognized
+	public ParseError error = ParseError.NONE;
+
+	private char[] buffer = new char[0];
+	private CharView pan = new CharView();
+	private CharView name = new CharView();
+	private CharView expiry = new CharView();
+	private CharView serviceCode = new CharView();
+	private CharView discretionary = new CharView();
+
+	public CardTrack(){
+	}
+
+	void reset(char[] buffer){
+		this.buffer = buffer;
+		track = 0;
+		error = ParseError.NONE;
+		pan.set(buffer, 0, 0);
+		name.set(buffer, 0, 0);
+		expiry.set(buffer, 0, 0);
+		serviceCode.set(buffer, 0, 0);
+		discretionary.set(buffer, 0, 0);
+	}
+
+	/**
+	 * get whether the track parsed and passed all validation
+	 * @return
+	 */
+	public boolean isValid(){
+		return error == ParseError.NONE;
+	}
+
+	public ParseError getError(){
+		return error;
+	}
+
+	/**
+	 * primary account number
+	 * @return
+	 */
+	public CharView getPan(){
+		return pan;
+	}
+
+	/**
+	 * cardholder name, as encoded (SURNAME/GIVEN).  Always empty for track 2.
+	 * @return
+	 */
+	public CharView getName(){
+		return name;
+	}
+
+	/**
+	 * expiration date, YYMM
+	 * @return
+	 */
+	public CharView getExpiry(){
+		return expiry;
+	}
+
+	public CharView getServiceCode(){
+		return serviceCode;
+	}
+
+	/**
+	 * issuer discretionary data, up to but not including the end sentinel
+	 * @return
+	 */
+	public CharView getDiscretionary(){
+		return discretionary;
+	}
+
+	/**
+	 * wipe the underlying character buffer, which also empties every view of it.
+	 */
+	public void clear(){
+		Arrays.fill(buffer, '\0');
+		reset(new char[0]);
+	}
+
+	public String toString(){
+		//deliberately leaves out the field contents, so tracks can be logged
+		return "[track: "+track+", error: "+error+", pan length: "+pan.length()+"]";
+	}
+
+}
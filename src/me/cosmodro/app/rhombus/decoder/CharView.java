@@ -0,0 +1,80 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * CharSequence over a range of a char buffer, without copying it.
+ * The view follows the buffer, so it reflects any later changes to it, including clearing.
+ * Only toString() makes a copy.
+ */
+public class CharView implements CharSequence {
+	private char[] buffer;
+	private int offset;
+	private int length;
+
+	public CharView(){
+		this(new char[0], 0, 0);
+	}
+
+	public CharView(char[] buffer, int offset, int length){
+		set(buffer, offset, length);
+	}
+
+	/**
+	 * point this view at a different range
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @throws IndexOutOfBoundsException if the range is not within buffer
+	 */
+	public void set(char[] buffer, int offset, int length){
+		if (offset < 0 || length < 0 || offset + length > buffer.length){
+			throw new IndexOutOfBoundsException("range "+offset+"+"+length+" outside buffer of "+buffer.length);
+		}
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	public int getOffset(){
+		return offset;
+	}
+
+	public int length(){
+		return length;
+	}
+
+	public char charAt(int index){
+		if (index < 0 || index >= length){
+			throw new IndexOutOfBoundsException("index "+index+" outside view of "+length);
+		}
+		return buffer[offset + index];
+	}
+
+	public CharSequence subSequence(int start, int end){
+		if (start < 0 || end > length || start > end){
+			throw new IndexOutOfBoundsException("range "+start+"-"+end+" outside view of "+length);
+		}
+		return new CharView(buffer, offset + start, end - start);
+	}
+
+	/**
+	 * compare to another sequence, character by character, without copying either
+	 * @param other
+	 * @return
+	 */
+	public boolean contentEquals(CharSequence other){
+		if (other.length() != length){
+			return false;
+		}
+		for (int i = 0; i < length; i++){
+			if (buffer[offset + i] != other.charAt(i)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public String toString(){
+		return new String(buffer, offset, length);
+	}
+
+}
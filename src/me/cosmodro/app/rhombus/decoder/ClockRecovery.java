@@ -0,0 +1,98 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * recovers bits and the bit clock from the intervals between flux transitions of an F2F (Aiken biphase) stripe.
+ * A 0 bit is one transition per bit cell and a 1 bit is two, so each interval is either a full cell or half of one.
+ *
+ * The cell length is tracked by a second order loop, as in a software PLL: the error of each completed cell
+ * adjusts both the cell length and its drift per cell, so a swipe which steadily speeds up or slows down is
+ * followed without lag, while single noisy intervals are smoothed out.
+ * Lengths are held in fixed point, with FRACTION_BITS fractional bits.
+ *
+ * Used by both the zero crossing and the peaks decoders, so they agree on timing.
+ */
+public class ClockRecovery {
+	//results of next()
+	public static final int ZERO = 0;
+	public static final int ONE = 1;
+	public static final int NO_BIT = -1; //interval consumed, but no bit completed yet
+	public static final int LOST = -2; //a full cell where the second half of a 1 was expected
+
+	private static final int FRACTION_BITS = 8;
+	//loop gains, as right shifts of the cell error: 1/4 proportional, 1/32 integral, for a damping factor near 0.7
+	private static final int PROPORTIONAL_SHIFT = 2;
+	private static final int INTEGRAL_SHIFT = 5;
+
+	private int cell; //expected cell length, or -1 before the first interval
+	private int drift; //change in cell length per cell
+	private int firstHalf; //first half of a 1, or -1 if none is pending
+
+	public ClockRecovery(){
+		reset();
+	}
+
+	/**
+	 * forget the clock, ready for a new swipe
+	 */
+	public void reset(){
+		cell = -1;
+		drift = 0;
+		firstHalf = -1;
+	}
+
+	/**
+	 * get whether a cell length has been established
+	 * @return
+	 */
+	public boolean isLocked(){
+		return cell > 0;
+	}
+
+	/**
+	 * get the current expected cell (0 bit) length
+	 * @return length in samples, or 0 if not locked
+	 */
+	public double getCellLength(){
+		return isLocked() ? (double)cell / (1 << FRACTION_BITS) : 0;
+	}
+
+	/**
+	 * feed the interval to the next transition.
+	 * The first interval is taken to be a 0, as every track starts with clocking 0s.
+	 * @param interval samples since the last transition
+	 * @return ZERO or ONE if a bit was completed, NO_BIT if not, or LOST if the stripe can't be followed further
+	 */
+	public int next(int interval){
+		int length = interval << FRACTION_BITS;
+		if (!isLocked()){
+			cell = Math.max(1, length);
+			return NO_BIT;
+		}
+		//a half cell is nearer to cell/2 than to cell
+		boolean half = 4L * length < 3L * cell;
+		if (half){
+			if (firstHalf < 0){
+				firstHalf = length;
+				return NO_BIT;
+			}
+			track(firstHalf + length);
+			firstHalf = -1;
+			return ONE;
+		}
+		if (firstHalf >= 0){
+			return LOST;
+		}
+		track(length);
+		return ZERO;
+	}
+
+	private void track(int measured){
+		int error = measured - cell;
+		//a single glitch shouldn't be able to throw the loop off
+		int limit = cell >> 1;
+		error = Math.max(-limit, Math.min(limit, error));
+		drift += error >> INTEGRAL_SHIFT;
+		cell = Math.max(1, cell + (error >> PROPORTIONAL_SHIFT) + drift);
+	}
+
+}
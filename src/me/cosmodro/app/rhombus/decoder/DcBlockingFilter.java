@@ -0,0 +1,69 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * first order DC blocking high-pass filter, y[n] = x[n] - x[n-1] + pole * y[n-1], in Q15 fixed point.
+ * Unlike subtracting the mean of the whole capture, this follows a DC offset that drifts during the swipe.
+ * The first sample of a capture is taken as the initial DC level, so a constant offset produces no transient.
+ *
+ * Opt in with AudioDecoder.setFilters; it is not in the default chain.  The time constant is about 1 / (1 - pole)
+ * samples (200 at the default pole), and a bit cell much longer than that is partly filtered away: a slow track 2
+ * swipe at 5 inches per second has cells of about 117 samples at 44.1kHz, and decodes worse with this filter than without.
+ * For slow swipes use a pole closer to 1, keeping 1 / (1 - pole) several times the longest expected bit cell.
+ */
+public class DcBlockingFilter implements SampleFilter {
+	public static final double DEFAULT_POLE = 0.995;
+
+	private int poleQ15;
+	private boolean primed = false;
+	private int lastIn;
+	private int lastOut;
+
+	public DcBlockingFilter(){
+		this(DEFAULT_POLE);
+	}
+
+	/**
+	 * @param pole between 0 and 1.  closer to 1 is a lower cutoff.  cutoff is roughly (1 - pole) * sampleRate / (2 * pi)
+	 * @throws IllegalArgumentException if pole is outside 0 to 1
+	 */
+	public DcBlockingFilter(double pole){
+		if (pole < 0 || pole >= 1){
+			throw new IllegalArgumentException("pole must be in the range [0, 1): "+pole);
+		}
+		this.poleQ15 = (int)Math.round(pole * 32768);
+	}
+
+	public void reset(){
+		primed = false;
+		lastIn = 0;
+		lastOut = 0;
+	}
+
+	public void process(int[] data, int from, int to){
+		if (from >= to){
+			return;
+		}
+		if (!primed){
+			lastIn = data[from];
+			lastOut = 0;
+			primed = true;
+		}
+		int x;
+		int y = lastOut;
+		int prev = lastIn;
+		long pole = poleQ15;
+		for (int i = from; i < to; i++){
+			x = data[i];
+			y = x - prev + (int)((pole * y + 16384) >> 15); //round, or the truncation error accumulates into an offset
+			prev = x;
+			data[i] = y;
+		}
+		lastIn = prev;
+		lastOut = y;
+	}
+
+	public String toString(){
+		return "DcBlockingFilter[pole: "+(poleQ15 / 32768.0)+"]";
+	}
+
+}
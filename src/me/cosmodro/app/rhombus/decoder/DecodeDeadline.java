@@ -0,0 +1,70 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * time budget and cancellation token for a single decode.
+ * The decoder polls isExpired() between stages and periodically within them, and when it returns true
+ * gives back the best result found so far, marked as timed out.
+ *
+ * cancel() may be called from any thread.
+ */
+public class DecodeDeadline {
+	private final boolean bounded;
+	private final long deadlineNanos;
+	private volatile boolean cancelled = false;
+
+	/**
+	 * create a token with no time limit, which only expires if cancelled
+	 */
+	public DecodeDeadline(){
+		this.bounded = false;
+		this.deadlineNanos = 0;
+	}
+
+	private DecodeDeadline(long budgetNanos){
+		this.bounded = true;
+		this.deadlineNanos = System.nanoTime() + budgetNanos;
+	}
+
+	/**
+	 * create a token which expires the given number of milliseconds from now
+	 * @param millis
+	 * @return
+	 */
+	public static DecodeDeadline withBudget(long millis){
+		return new DecodeDeadline(millis * 1000000L);
+	}
+
+	/**
+	 * stop any decode using this token at its next check
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	public boolean isCancelled(){
+		return cancelled;
+	}
+
+	/**
+	 * get whether the decode should stop, either because it was cancelled or because the budget is spent
+	 * @return
+	 */
+	public boolean isExpired(){
+		return cancelled || (bounded && System.nanoTime() - deadlineNanos >= 0);
+	}
+
+	/**
+	 * get the time left in the budget
+	 * @return milliseconds remaining, 0 if expired, or Long.MAX_VALUE if there is no time limit
+	 */
+	public long getRemainingMillis(){
+		if (cancelled){
+			return 0;
+		}
+		if (!bounded){
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, (deadlineNanos - System.nanoTime()) / 1000000L);
+	}
+
+}
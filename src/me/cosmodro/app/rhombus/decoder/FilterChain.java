@@ -0,0 +1,46 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * runs a sequence of filters over the same samples, in the order they were added.
+ * A chain is itself a filter, so chains may be nested.
+ */
+public class FilterChain implements SampleFilter {
+	private List<SampleFilter> filters = new ArrayList<SampleFilter>();
+
+	public FilterChain(){
+	}
+
+	/**
+	 * append a filter to the chain
+	 * @param filter
+	 * @return this chain, for chaining calls
+	 */
+	public FilterChain add(SampleFilter filter){
+		filters.add(filter);
+		return this;
+	}
+
+	public List<SampleFilter> getFilters(){
+		return filters;
+	}
+
+	public void reset(){
+		for (SampleFilter filter : filters){
+			filter.reset();
+		}
+	}
+
+	public void process(int[] data, int from, int to){
+		for (SampleFilter filter : filters){
+			filter.process(data, from, to);
+		}
+	}
+
+	public String toString(){
+		return "FilterChain"+filters;
+	}
+
+}
@@ -0,0 +1,49 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * first order IIR low-pass filter, y[n] = smoothing * y[n-1] + (1 - smoothing) * x[n], in Q15 fixed point.
+ * The first sample of a capture is passed through unchanged to seed the filter state.
+ */
+public class LowPassFilter implements SampleFilter {
+	private int keepQ15; //weight of new sample, 1 - smoothing
+	private boolean primed = false;
+	private int lastOut;
+
+	/**
+	 * @param smoothing weight given to the previous output, between 0 (no filtering) and 1
+	 * @throws IllegalArgumentException if smoothing is outside 0 to 1
+	 */
+	public LowPassFilter(double smoothing){
+		if (smoothing < 0 || smoothing >= 1){
+			throw new IllegalArgumentException("smoothing must be in the range [0, 1): "+smoothing);
+		}
+		this.keepQ15 = (int)Math.round((1 - smoothing) * 32768);
+	}
+
+	public void reset(){
+		primed = false;
+		lastOut = 0;
+	}
+
+	public void process(int[] data, int from, int to){
+		if (from >= to){
+			return;
+		}
+		int y = lastOut;
+		if (!primed){
+			y = data[from];
+			primed = true;
+		}
+		long keep = keepQ15;
+		for (int i = from; i < to; i++){
+			y += (int)(((data[i] - y) * keep + 16384) >> 15);
+			data[i] = y;
+		}
+		lastOut = y;
+	}
+
+	public String toString(){
+		return "LowPassFilter[smoothing: "+(1 - (keepQ15 / 32768.0))+"]";
+	}
+
+}
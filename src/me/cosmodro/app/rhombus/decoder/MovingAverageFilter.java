@@ -0,0 +1,54 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * moving average over the last n samples, using a running sum.
+ * Until n samples have been seen, averages over the samples seen so far.
+ */
+public class MovingAverageFilter implements SampleFilter {
+	private int[] window;
+	private int pos = 0;
+	private int count = 0;
+	private long sum = 0;
+
+	/**
+	 * @param length number of samples to average over
+	 * @throws IllegalArgumentException if length is less than 1
+	 */
+	public MovingAverageFilter(int length){
+		if (length < 1){
+			throw new IllegalArgumentException("moving average length must be at least 1: "+length);
+		}
+		window = new int[length];
+	}
+
+	public void reset(){
+		pos = 0;
+		count = 0;
+		sum = 0;
+	}
+
+	public void process(int[] data, int from, int to){
+		int length = window.length;
+		int x;
+		for (int i = from; i < to; i++){
+			x = data[i];
+			if (count < length){
+				count++;
+			}else{
+				sum -= window[pos];
+			}
+			window[pos] = x;
+			sum += x;
+			pos++;
+			if (pos == length){
+				pos = 0;
+			}
+			data[i] = (int)(sum / count);
+		}
+	}
+
+	public String toString(){
+		return "MovingAverageFilter[length: "+window.length+"]";
+	}
+
+}
@@ -0,0 +1,349 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import me.cosmodro.app.rhombus.archive.CaptureArchive;
+import me.cosmodro.app.rhombus.archive.CaptureArchiveReader;
+
+/**
+ * searches silenceLevel, smoothing and minLevelCoeff for the settings which decode the most captures of a corpus
+ * to their known content on the first attempt, breaking ties on the fewest wrong characters and then on the order
+ * points were searched in, so the same corpus always tunes to the same settings.
+ * A grid search is followed by rounds of coordinate refinement around the best point, evaluated in parallel.
+ * Mean decode time is reported, but as it is measured cold and alongside other evaluations it is not compared.
+ *
+ * Work is shared between parameter points wherever a stage does not depend on the parameter:
+ * preprocessing only depends on smoothing, and the decode strategies only on the resulting threshold and
+ * silenceLevel (which picks the peaks the per-block thresholds adapt to), so each capture is preprocessed
+ * once per smoothing value and decoded once per distinct threshold and silenceLevel.
+ * Assumes the default front end filters.
+ *
+ * usage: ParameterTuner archive expected.txt [threads]
+ *   archive       capture archive of swipes
+ *   expected.txt  expected content of each swipe in the archive, one per line
+ */
+public class ParameterTuner {
+	private List<int[]> captures = new ArrayList<int[]>();
+	private List<String> expected = new ArrayList<String>();
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int[] silenceLevels = {250, 500, 750, 1000, 1500};
+	private double[] smoothings = {0, 0.1, 0.2, 0.3, 0.5};
+	private double[] minLevelCoeffs = {0.3, 0.4, 0.5, 0.6, 0.7};
+	private int refinementRounds = 6;
+
+	private ConcurrentHashMap<Double, Future<Preprocessed>> preprocessed = new ConcurrentHashMap<Double, Future<Preprocessed>>();
+	private ConcurrentHashMap<String, Future<Outcome>> outcomes = new ConcurrentHashMap<String, Future<Outcome>>();
+
+	//a corpus preprocessed with one smoothing value
+	private static class Preprocessed {
+		int[][] data;
+		long[] nanos;
+	}
+
+	//result of running the decode strategies over one preprocessed capture at one threshold and silenceLevel
+	private static class Outcome {
+		boolean success;
+		int errors;
+		long nanos;
+	}
+
+	public ParameterTuner(){
+	}
+
+	/**
+	 * add a capture to the corpus
+	 * @param samples raw samples, as recorded
+	 * @param expectedContent what the swipe should decode to, sentinels included
+	 */
+	public void addCapture(short[] samples, String expectedContent){
+		captures.add(SampleKernels.toArray(samples, 0, samples.length));
+		expected.add(expectedContent);
+		preprocessed.clear();
+		outcomes.clear();
+	}
+
+	public int getCaptureCount(){
+		return captures.size();
+	}
+
+	/**
+	 * set the number of threads to evaluate on.  Defaults to the number of processors
+	 * @param threads
+	 */
+	public void setThreads(int threads){
+		this.threads = threads;
+	}
+
+	/**
+	 * set the values searched in the initial grid
+	 * @param silenceLevels
+	 * @param smoothings
+	 * @param minLevelCoeffs
+	 */
+	public void setGrid(int[] silenceLevels, double[] smoothings, double[] minLevelCoeffs){
+		this.silenceLevels = silenceLevels;
+		this.smoothings = smoothings;
+		this.minLevelCoeffs = minLevelCoeffs;
+	}
+
+	/**
+	 * set the number of coordinate refinement rounds after the grid search.  Defaults to 6
+	 * @param refinementRounds
+	 */
+	public void setRefinementRounds(int refinementRounds){
+		this.refinementRounds = refinementRounds;
+	}
+
+	/**
+	 * search for the best settings
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public TuningResult tune() throws InterruptedException{
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "rhombus-tuner");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try{
+			List<TuningResult> points = new ArrayList<TuningResult>();
+			for (int s : silenceLevels){
+				for (double sm : smoothings){
+					for (double c : minLevelCoeffs){
+						points.add(new TuningResult(s, sm, c));
+					}
+				}
+			}
+			TuningResult best = evaluateAll(executor, points, null);
+
+			//coordinate refinement: try a step either side of the best point on each axis, halving steps when nothing improves
+			int silenceStep = Math.max(1, spacing(silenceLevels) / 2);
+			double smoothingStep = spacing(smoothings) / 2;
+			double coeffStep = spacing(minLevelCoeffs) / 2;
+			for (int round = 0; round < refinementRounds; round++){
+				points.clear();
+				points.add(new TuningResult(clamp(best.silenceLevel - silenceStep, 1, Short.MAX_VALUE), best.smoothing, best.minLevelCoeff));
+				points.add(new TuningResult(clamp(best.silenceLevel + silenceStep, 1, Short.MAX_VALUE), best.smoothing, best.minLevelCoeff));
+				points.add(new TuningResult(best.silenceLevel, clamp(best.smoothing - smoothingStep, 0, 0.95), best.minLevelCoeff));
+				points.add(new TuningResult(best.silenceLevel, clamp(best.smoothing + smoothingStep, 0, 0.95), best.minLevelCoeff));
+				points.add(new TuningResult(best.silenceLevel, best.smoothing, clamp(best.minLevelCoeff - coeffStep, 0.05, 0.95)));
+				points.add(new TuningResult(best.silenceLevel, best.smoothing, clamp(best.minLevelCoeff + coeffStep, 0.05, 0.95)));
+				TuningResult next = evaluateAll(executor, points, best);
+				if (next == best){
+					silenceStep = Math.max(1, silenceStep / 2);
+					smoothingStep /= 2;
+					coeffStep /= 2;
+				}
+				best = next;
+			}
+			return best;
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * score one set of settings over the corpus
+	 * @param silenceLevel
+	 * @param smoothing
+	 * @param minLevelCoeff
+	 * @return
+	 */
+	public TuningResult evaluate(int silenceLevel, double smoothing, double minLevelCoeff){
+		TuningResult result = new TuningResult(silenceLevel, smoothing, minLevelCoeff);
+		evaluate(result);
+		return result;
+	}
+
+	private TuningResult evaluateAll(ExecutorService executor, List<TuningResult> points, TuningResult best)
+			throws InterruptedException{
+		List<Callable<TuningResult>> tasks = new ArrayList<Callable<TuningResult>>(points.size());
+		for (final TuningResult point : points){
+			tasks.add(new Callable<TuningResult>(){
+				public TuningResult call(){
+					evaluate(point);
+					return point;
+				}
+			});
+		}
+		for (Future<TuningResult> f : executor.invokeAll(tasks)){
+			TuningResult point = get(f);
+			if (point.isBetterThan(best)){
+				best = point;
+			}
+		}
+		return best;
+	}
+
+	private void evaluate(TuningResult point){
+		AudioDecoder decoder = new AudioDecoder();
+		point.apply(decoder);
+		Preprocessed pre = preprocessed(point.smoothing);
+		long totalNanos = 0;
+		int successes = 0;
+		int errors = 0;
+		for (int i = 0; i < captures.size(); i++){
+			long start = System.nanoTime();
+			int level = decoder.computeMinLevel(pre.data[i]);
+			long levelNanos = System.nanoTime() - start;
+			Outcome outcome = outcome(pre, point.smoothing, point.silenceLevel, i, level);
+			if (outcome.success){
+				successes++;
+			}
+			errors += outcome.errors;
+			totalNanos += pre.nanos[i] + levelNanos + outcome.nanos;
+		}
+		point.captures = captures.size();
+		point.successes = successes;
+		point.errors = errors;
+		point.meanDecodeMillis = captures.isEmpty() ? 0 : totalNanos / (captures.size() * 1000000.0);
+	}
+
+	private Preprocessed preprocessed(final double smoothing){
+		Double key = Double.valueOf(smoothing);
+		Future<Preprocessed> f = preprocessed.get(key);
+		if (f == null){
+			FutureTask<Preprocessed> task = new FutureTask<Preprocessed>(new Callable<Preprocessed>(){
+				public Preprocessed call(){
+					AudioDecoder decoder = new AudioDecoder();
+					decoder.setSmoothing(smoothing);
+					Preprocessed pre = new Preprocessed();
+					pre.data = new int[captures.size()][];
+					pre.nanos = new long[captures.size()];
+					for (int i = 0; i < captures.size(); i++){
+						long start = System.nanoTime();
+						int[] data = captures.get(i).clone();
+						decoder.preprocess(data);
+						pre.nanos[i] = System.nanoTime() - start;
+						pre.data[i] = data;
+					}
+					return pre;
+				}
+			});
+			f = preprocessed.putIfAbsent(key, task);
+			if (f == null){
+				f = task;
+				task.run();
+			}
+		}
+		return get(f);
+	}
+
+	private Outcome outcome(final Preprocessed pre, double smoothing, final int silenceLevel, final int capture, final int level){
+		String key = smoothing+"|"+silenceLevel+"|"+capture+"|"+level;
+		Future<Outcome> f = outcomes.get(key);
+		if (f == null){
+			FutureTask<Outcome> task = new FutureTask<Outcome>(new Callable<Outcome>(){
+				public Outcome call(){
+					AudioDecoder decoder = new AudioDecoder();
+					decoder.setSilenceLevel(silenceLevel);
+					Outcome outcome = new Outcome();
+					long start = System.nanoTime();
+					SwipeData data = decoder.decodePreprocessed(pre.data[capture], pre.data[capture].length, level, null, new DecodeDeadline());
+					outcome.nanos = System.nanoTime() - start;
+					outcome.errors = errors(data, expected.get(capture));
+					outcome.success = !data.isBadRead() && data.getBadCharIndices().isEmpty() && outcome.errors == 0;
+					return outcome;
+				}
+			});
+			f = outcomes.putIfAbsent(key, task);
+			if (f == null){
+				f = task;
+				task.run();
+			}
+		}
+		return get(f);
+	}
+
+	//characters which differ from expected, counting missing and extra ones
+	private static int errors(SwipeData data, String expected){
+		char[] chars = data.getChars();
+		int length = data.length();
+		int common = Math.min(length, expected.length());
+		int errors = Math.abs(length - expected.length());
+		for (int i = 0; i < common; i++){
+			if (chars[i] != expected.charAt(i)){
+				errors++;
+			}
+		}
+		return errors;
+	}
+
+	private static <T> T get(Future<T> f){
+		try{
+			return f.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while tuning", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("tuning evaluation failed", e.getCause());
+		}
+	}
+
+	private static int spacing(int[] values){
+		return (values.length > 1) ? Math.abs(values[1] - values[0]) : Math.max(1, values[0] / 2);
+	}
+
+	private static double spacing(double[] values){
+		return (values.length > 1) ? Math.abs(values[1] - values[0]) : 0.1;
+	}
+
+	private static int clamp(int v, int min, int max){
+		return Math.max(min, Math.min(max, v));
+	}
+
+	private static double clamp(double v, double min, double max){
+		return Math.max(min, Math.min(max, v));
+	}
+
+	public static void main(String[] args) throws Exception{
+		if (args.length < 2){
+			System.err.println("usage: ParameterTuner archive expected.txt [threads]");
+			System.exit(2);
+		}
+		ParameterTuner tuner = new ParameterTuner();
+		if (args.length > 2){
+			tuner.setThreads(Integer.parseInt(args[2]));
+		}
+		CaptureArchiveReader reader = new CaptureArchiveReader(new File(args[0]));
+		BufferedReader lines = new BufferedReader(new FileReader(args[1]));
+		CaptureArchive header;
+		try{
+			header = reader.getHeader();
+			for (int i = 0; i < reader.getSwipeCount(); i++){
+				String line = lines.readLine();
+				if (line == null){
+					throw new IllegalArgumentException("fewer expected lines than swipes in archive");
+				}
+				short[] samples = new short[reader.getSampleCount(i)];
+				reader.openSwipe(i).read(samples, 0, samples.length);
+				tuner.addCapture(samples, line.trim());
+			}
+		}finally{
+			lines.close();
+			reader.close();
+		}
+		long start = System.nanoTime();
+		TuningResult best = tuner.tune();
+		//evaluated second, so its timing isn't skewed by JIT warm-up
+		System.out.println("recorded settings: "+tuner.evaluate(header.silenceLevel, header.smoothing, header.minLevelCoeff));
+		System.out.println("best settings:     "+best);
+		System.out.println("tuned "+tuner.getCaptureCount()+" captures in "+(System.nanoTime() - start) / 1000000+"ms");
+	}
+
+}
@@ -0,0 +1,23 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * a stage of the decoder front end which cleans up samples in place.
+ * Filters are stateful and streaming: consecutive calls to process continue from where the last one
+ * left off, so a capture may be filtered in one call or in several chunks with the same result.
+ */
+public interface SampleFilter {
+
+	/**
+	 * forget all state, ready for a new capture
+	 */
+	public void reset();
+
+	/**
+	 * filter samples in place
+	 * @param data
+	 * @param from index of first sample to filter
+	 * @param to index after last sample to filter
+	 */
+	public void process(int[] data, int from, int to);
+
+}
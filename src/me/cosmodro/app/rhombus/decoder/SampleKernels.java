@@ -0,0 +1,218 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import java.util.List;
+
+/**
+ * tight loops over primitive sample buffers, shared by the decoder and the audio monitor.
+ * All ranges are [from, to).
+ *
+ * Most of the gain over the old per-sample code is from working on unboxed arrays.  The counted loops
+ * (sum, offset, widen) have no exits, so C2 can unroll and auto-vectorize them.  The searches
+ * (nextCrossing, indexOfLoud, and indexOfLoudRun through it) exit early, which C2 does not vectorize,
+ * so on a JVM with the jdk.incubator.vector module they are run by VectorKernels instead.
+ * That class is built separately, from src-vector, since neither Android nor older JVMs have the module.
+ * It is loaded by reflection, and the scalar loops here are used whenever it is missing, can't load,
+ * or is turned off with -Drhombus.kernels=scalar.
+ *
+ * The decoder's peak measurement has no kernel of its own: each sample depends on the peak state left by the one
+ * before, so it stays a scalar loop.  Between peaks it skips quiet runs with indexOfLoud, which covers the silence
+ * either side of a swipe.
+ */
+public class SampleKernels {
+	private static final String ACCELERATED_CLASS = "me.cosmodro.app.rhombus.decoder.VectorKernels";
+
+	//the accelerated searches, or null to run the scalar loops
+	private static final Accelerated ACCELERATED = loadAccelerated();
+
+	/**
+	 * search kernels with the same contracts as the scalar ones of the same names
+	 */
+	interface Accelerated {
+		int nextCrossing(int[] data, int from, int to, int lastSign, int level);
+		int indexOfLoud(int[] data, int from, int to, int level);
+		int indexOfLoud(short[] data, int from, int to, int level);
+	}
+
+	private SampleKernels(){
+	}
+
+	private static Accelerated loadAccelerated(){
+		if ("scalar".equals(System.getProperty("rhombus.kernels"))){
+			return null;
+		}
+		try{
+			return (Accelerated)Class.forName(ACCELERATED_CLASS).getDeclaredConstructor().newInstance();
+		}catch(Throwable t){
+			//not built in, or the vector module isn't there (NoClassDefFoundError): use the scalar loops
+			return null;
+		}
+	}
+
+	/**
+	 * get whether the searches are running on the Vector API
+	 * @return
+	 */
+	public static boolean isAccelerated(){
+		return ACCELERATED != null;
+	}
+
+	/**
+	 * unbox a list of samples into an array
+	 * @param data
+	 * @return
+	 */
+	public static int[] toArray(List<Integer> data){
+		int[] result = new int[data.size()];
+		int i = 0;
+		for (Integer val : data){
+			result[i++] = val;
+		}
+		return result;
+	}
+
+	/**
+	 * unbox a list of samples into an existing array
+	 * @param data
+	 * @param dest must hold at least data.size() samples
+	 */
+	public static void toArray(List<Integer> data, int[] dest){
+		int i = 0;
+		for (Integer val : data){
+			dest[i++] = val;
+		}
+	}
+
+	/**
+	 * widen a range of 16 bit samples into an existing array, from index 0
+	 * @param data
+	 * @param from
+	 * @param to
+	 * @param dest must hold at least to - from samples
+	 */
+	public static void widen(short[] data, int from, int to, int[] dest){
+		for (int i = from; i < to; i++){
+			dest[i - from] = data[i];
+		}
+	}
+
+	/**
+	 * widen a range of 16 bit samples into a new array
+	 * @param data
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static int[] toArray(short[] data, int from, int to){
+		int[] result = new int[to - from];
+		for (int i = from; i < to; i++){
+			result[i - from] = data[i];
+		}
+		return result;
+	}
+
+	public static long sum(int[] data, int from, int to){
+		long sum = 0;
+		for (int i = from; i < to; i++){
+			sum += data[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * add delta to every sample in range, in place
+	 */
+	public static void offset(int[] data, int from, int to, int delta){
+		for (int i = from; i < to; i++){
+			data[i] += delta;
+		}
+	}
+
+	/**
+	 * find the next sample which crosses zero away from lastSign with magnitude above level.
+	 * @param lastSign -1 to look for a sample above level, 1 to look for a sample below -level
+	 * @return index of the sample, or -1 if there is none in range
+	 */
+	public static int nextCrossing(int[] data, int from, int to, int lastSign, int level){
+		if (ACCELERATED != null){
+			return ACCELERATED.nextCrossing(data, from, to, lastSign, level);
+		}
+		if (lastSign < 0){
+			for (int i = from; i < to; i++){
+				if (data[i] > level){
+					return i;
+				}
+			}
+		}else{
+			int negLevel = -level;
+			for (int i = from; i < to; i++){
+				if (data[i] < negLevel){
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * find the next sample whose absolute value is at least level
+	 * @return index of the sample, or -1 if there is none in range
+	 */
+	public static int indexOfLoud(int[] data, int from, int to, int level){
+		if (ACCELERATED != null){
+			return ACCELERATED.indexOfLoud(data, from, to, level);
+		}
+		for (int i = from; i < to; i++){
+			int v = data[i];
+			if (v >= level || -v >= level){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * find the next sample whose absolute value is at least level
+	 * @return index of the sample, or -1 if there is none in range
+	 */
+	public static int indexOfLoud(short[] data, int from, int to, int level){
+		if (ACCELERATED != null){
+			return ACCELERATED.indexOfLoud(data, from, to, level);
+		}
+		for (int i = from; i < to; i++){
+			int v = data[i];
+			if (v >= level || -v >= level){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * find the end of the first run of more than quorum consecutive samples whose absolute value is at least level.
+	 * @return index of the sample which completes the run, or -1 if there is none in range
+	 */
+	public static int indexOfLoudRun(short[] data, int from, int to, int level, int quorum){
+		int i = from;
+		while (i < to){
+			i = indexOfLoud(data, i, to, level);
+			if (i < 0){
+				return -1;
+			}
+			int runEnd = Math.min(to, i + quorum + 1);
+			int found = 0;
+			while (i < runEnd){
+				int v = data[i];
+				if (v < level && -v < level){
+					break;
+				}
+				found++;
+				i++;
+			}
+			if (found > quorum){
+				return i - 1;
+			}
+		}
+		return -1;
+	}
+
+}
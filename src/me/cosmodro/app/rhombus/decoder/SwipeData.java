@@ -1,23 +1,70 @@
 package me.cosmodro.app.rhombus.decoder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class SwipeData {
 	public String content;
+	public char[] chars; //decoded characters.  the first length of them are the content
+	public int length;
 	public List<Integer> badCharIndices;
 	public boolean badRead;
-	public List<Integer> raw;
+	public boolean timedOut;
+	public List<Integer> raw; //the samples given to processData, not copied, so only usable for as long as they are
 	
 	public SwipeData(){
 		content = "";
+		chars = new char[0];
+		length = 0;
 		badRead = false;
+		timedOut = false;
 		badCharIndices = new ArrayList<Integer>();
 		raw = new ArrayList<Integer>(); //placeholder.
 	}
 	
 	public void setContent(String text){
 		this.content = text;
+		this.chars = text.toCharArray();
+		this.length = chars.length;
+	}
+	
+	/**
+	 * set the decoded characters without making a String of them.  content is set to "".
+	 * @param chars buffer, which is kept rather than copied
+	 * @param length number of characters used in buffer
+	 */
+	public void setContent(char[] chars, int length){
+		this.content = "";
+		this.chars = chars;
+		this.length = length;
+	}
+	
+	/**
+	 * get the buffer of decoded characters.  Only the first length() are content.
+	 * @return
+	 */
+	public char[] getChars(){
+		return chars;
+	}
+	
+	/**
+	 * get the number of decoded characters
+	 * @return
+	 */
+	public int length(){
+		return length;
+	}
+	
+	/**
+	 * wipe the decoded characters and drop references to the content and raw samples,
+	 * so card data does not linger on the heap.  Any String previously taken from content is not affected.
+	 */
+	public void clear(){
+		Arrays.fill(chars, '\0');
+		length = 0;
+		content = "";
+		raw = new ArrayList<Integer>();
 	}
 	
 	public void addBadCharIndex(int i){
@@ -32,6 +79,17 @@ public class SwipeData {
 		return badRead;
 	}
 	
+	/**
+	 * mark this result as partial, because the decode ran out of time or was cancelled
+	 */
+	public void setTimedOut(){
+		timedOut = true;
+	}
+	
+	public boolean isTimedOut(){
+		return timedOut;
+	}
+	
 	public List<Integer> getBadCharIndices(){
 		return this.badCharIndices;
 	}
@@ -0,0 +1,176 @@
+package me.cosmodro.app.rhombus.decoder;
+
+import java.util.Random;
+
+/**
+ * generates the audio a read head would produce for a track 1 or track 2 swipe of given content.
+ * Each flux transition of the F2F (aiken biphase) encoding becomes a gaussian pulse, alternating in sign.
+ * Used to exercise the decoder without a reader attached.
+ */
+public class SwipeSynthesizer {
+	public static final int TRACK_1_BPI = 210;
+	public static final int TRACK_2_BPI = 75;
+
+	private int frequency;
+	private double inchesPerSecond = 10;
+	private double speedChange = 1.0; //factor applied to bit length after each bit
+	private int amplitude = 8000;
+	private int offset = 0;
+	private int noise = 0; //standard deviation of added gaussian noise
+	private int clockingBits = 20; //leading and trailing zeros
+	private Random random = new Random(0);
+
+	/**
+	 * @param frequency sample rate of the generated audio
+	 */
+	public SwipeSynthesizer(int frequency){
+		this.frequency = frequency;
+	}
+
+	/**
+	 * set swipe speed.  Defaults to 10 inches per second
+	 * @param inchesPerSecond
+	 */
+	public void setSpeed(double inchesPerSecond){
+		this.inchesPerSecond = inchesPerSecond;
+	}
+
+	/**
+	 * set how the swipe speeds up or slows down: each bit is this many times as long as the last.
+	 * Defaults to 1 (constant speed)
+	 * @param speedChange
+	 */
+	public void setSpeedChange(double speedChange){
+		this.speedChange = speedChange;
+	}
+
+	/**
+	 * set the peak level of each pulse.  Defaults to 8000
+	 * @param amplitude
+	 */
+	public void setAmplitude(int amplitude){
+		this.amplitude = amplitude;
+	}
+
+	/**
+	 * set a DC offset added to every sample.  Defaults to 0
+	 * @param offset
+	 */
+	public void setOffset(int offset){
+		this.offset = offset;
+	}
+
+	/**
+	 * set the standard deviation of gaussian noise added to every sample.  Defaults to 0
+	 * @param noise
+	 * @param seed seed for the noise generator, so output is repeatable
+	 */
+	public void setNoise(int noise, long seed){
+		this.noise = noise;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * synthesize a track 1 swipe
+	 * @param content characters from start sentinel '%' through end sentinel '?'.  The LRC is appended.
+	 * @return samples
+	 */
+	public short[] track1(String content){
+		return synthesize(content, AudioDecoder.TRACK_1_BITLENGTH - 1, AudioDecoder.TRACK_1_BASECHAR, TRACK_1_BPI);
+	}
+
+	/**
+	 * synthesize a track 2 swipe
+	 * @param content characters from start sentinel ';' through end sentinel '?'.  The LRC is appended.
+	 * @return samples
+	 */
+	public short[] track2(String content){
+		return synthesize(content, AudioDecoder.TRACK_2_BITLENGTH - 1, AudioDecoder.TRACK_2_BASECHAR, TRACK_2_BPI);
+	}
+
+	/**
+	 * synthesize a swipe
+	 * @param content characters to encode
+	 * @param bitsPerChar data bits per character, not including parity
+	 * @param baseChar character encoded as 0
+	 * @param bitsPerInch recording density of the track
+	 * @return samples
+	 */
+	public short[] synthesize(String content, int bitsPerChar, int baseChar, int bitsPerInch){
+		boolean[] bits = encode(content, bitsPerChar, baseChar);
+		double bitLength = frequency / (bitsPerInch * inchesPerSecond);
+		double margin = bitLength * 4;
+
+		//lay out transitions.  every bit starts with one, a 1 bit has another half way through.
+		double[] transitions = new double[bits.length * 2 + 1];
+		int count = 0;
+		double t = margin;
+		double length = bitLength;
+		for (int i = 0; i < bits.length; i++){
+			transitions[count++] = t;
+			if (bits[i]){
+				transitions[count++] = t + length / 2;
+			}
+			t += length;
+			length *= speedChange;
+		}
+		transitions[count++] = t;
+
+		int n = (int)(t + margin);
+		double[] signal = new double[n];
+		double width = bitLength / 8;
+		int reach = (int)Math.ceil(width * 4);
+		double sign = 1;
+		for (int k = 0; k < count; k++){
+			double center = transitions[k];
+			int from = Math.max(0, (int)center - reach);
+			int to = Math.min(n, (int)center + reach + 1);
+			for (int i = from; i < to; i++){
+				double d = (i - center) / width;
+				signal[i] += sign * amplitude * Math.exp(-d * d / 2);
+			}
+			sign = -sign;
+		}
+
+		short[] samples = new short[n];
+		for (int i = 0; i < n; i++){
+			double v = signal[i] + offset;
+			if (noise > 0){
+				v += random.nextGaussian() * noise;
+			}
+			samples[i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(v)));
+		}
+		return samples;
+	}
+
+	/**
+	 * encode content as bits: leading zeros, characters lsb first each with odd parity, LRC, trailing zeros
+	 */
+	private boolean[] encode(String content, int bitsPerChar, int baseChar){
+		int charBits = bitsPerChar + 1;
+		boolean[] bits = new boolean[clockingBits * 2 + (content.length() + 1) * charBits];
+		int pos = clockingBits;
+		int lrc = 0;
+		for (int c = 0; c < content.length(); c++){
+			int val = content.charAt(c) - baseChar;
+			lrc ^= val;
+			pos = encodeChar(bits, pos, val, bitsPerChar);
+		}
+		encodeChar(bits, pos, lrc, bitsPerChar);
+		return bits;
+	}
+
+	private int encodeChar(boolean[] bits, int pos, int val, int bitsPerChar){
+		boolean parity = true;
+		for (int b = 0; b < bitsPerChar; b++){
+			boolean bit = ((val >> b) & 1) != 0;
+			bits[pos++] = bit;
+			if (bit){
+				parity = !parity;
+			}
+		}
+		bits[pos++] = parity;
+		return pos;
+	}
+
+}
@@ -0,0 +1,177 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * parses decoded track 1 (%B...^...^...?) and track 2 (;...=...?) content into a CardTrack,
+ * working directly on the character buffer.  Parsing allocates nothing, so card data is never copied
+ * into Strings; call CardTrack.clear() when done with it to wipe the buffer.
+ */
+public class TrackParser {
+	public static final int MAX_PAN_LENGTH = 19;
+	public static final int MIN_NAME_LENGTH = 2;
+	public static final int MAX_NAME_LENGTH = 26;
+
+	public TrackParser(){
+	}
+
+	/**
+	 * parse the content of a decoded swipe.  Characters with bad parity fail the parse with BAD_PARITY.
+	 * @param data
+	 * @param out filled in with the result
+	 * @return true if the track parsed and validated
+	 */
+	public boolean parse(SwipeData data, CardTrack out){
+		if (!data.getBadCharIndices().isEmpty()){
+			out.reset(data.getChars());
+			out.error = CardTrack.ParseError.BAD_PARITY;
+			return false;
+		}
+		return parse(data.getChars(), 0, data.length(), out);
+	}
+
+	/**
+	 * parse track content from a buffer
+	 * @param buffer
+	 * @param offset index of the start sentinel
+	 * @param length number of characters, through the end sentinel
+	 * @param out filled in with the result
+	 * @return true if the track parsed and validated
+	 */
+	public boolean parse(char[] buffer, int offset, int length, CardTrack out){
+		out.reset(buffer);
+		if (length < 1){
+			out.error = CardTrack.ParseError.NO_START_SENTINEL;
+			return false;
+		}
+		int end = offset + length;
+		//find the end sentinel.  anything after it (the LRC, or noise) is ignored.
+		int endSentinel = indexOf(buffer, offset + 1, end, '?');
+		if (endSentinel < 0){
+			out.error = CardTrack.ParseError.NO_END_SENTINEL;
+		}
+		char start = buffer[offset];
+		if (start == '%'){
+			out.track = 1;
+			if (endSentinel >= 0){
+				parseTrack1(buffer, offset + 1, endSentinel, out);
+			}
+		}else if (start == ';'){
+			out.track = 2;
+			if (endSentinel >= 0){
+				parseTrack2(buffer, offset + 1, endSentinel, out);
+			}
+		}else{
+			out.error = CardTrack.ParseError.NO_START_SENTINEL;
+		}
+		return out.isValid();
+	}
+
+	private void parseTrack1(char[] buffer, int i, int end, CardTrack out){
+		if (i >= end || buffer[i] != 'B'){
+			out.error = CardTrack.ParseError.BAD_FORMAT_CODE;
+			return;
+		}
+		i++;
+		int sep = indexOf(buffer, i, end, '^');
+		if (sep < 0 || !isPan(buffer, i, sep)){
+			out.error = CardTrack.ParseError.BAD_PAN;
+			return;
+		}
+		out.getPan().set(buffer, i, sep - i);
+		i = sep + 1;
+		sep = indexOf(buffer, i, end, '^');
+		if (sep < 0 || sep - i < MIN_NAME_LENGTH || sep - i > MAX_NAME_LENGTH){
+			out.error = CardTrack.ParseError.BAD_NAME;
+			return;
+		}
+		out.getName().set(buffer, i, sep - i);
+		parseTail(buffer, sep + 1, end, out);
+	}
+
+	private void parseTrack2(char[] buffer, int i, int end, CardTrack out){
+		int sep = indexOf(buffer, i, end, '=');
+		if (sep < 0 || !isPan(buffer, i, sep)){
+			out.error = CardTrack.ParseError.BAD_PAN;
+			return;
+		}
+		out.getPan().set(buffer, i, sep - i);
+		parseTail(buffer, sep + 1, end, out);
+	}
+
+	/**
+	 * expiry, service code and discretionary data, common to both tracks
+	 */
+	private void parseTail(char[] buffer, int i, int end, CardTrack out){
+		if (end - i < 4 || !isDigits(buffer, i, i + 4)){
+			out.error = CardTrack.ParseError.BAD_EXPIRY;
+			return;
+		}
+		out.getExpiry().set(buffer, i, 4);
+		i += 4;
+		if (end - i < 3 || !isDigits(buffer, i, i + 3)){
+			out.error = CardTrack.ParseError.BAD_SERVICE_CODE;
+			return;
+		}
+		out.getServiceCode().set(buffer, i, 3);
+		i += 3;
+		out.getDiscretionary().set(buffer, i, end - i);
+
+		//format is fine, now validate contents
+		CharView pan = out.getPan();
+		if (!luhn(buffer, pan.getOffset(), pan.getOffset() + pan.length())){
+			out.error = CardTrack.ParseError.BAD_LUHN;
+			return;
+		}
+		int month = (buffer[out.getExpiry().getOffset() + 2] - '0') * 10 + (buffer[out.getExpiry().getOffset() + 3] - '0');
+		if (month < 1 || month > 12){
+			out.error = CardTrack.ParseError.BAD_EXPIRY;
+		}
+	}
+
+	private boolean isPan(char[] buffer, int from, int to){
+		return (to > from) && (to - from <= MAX_PAN_LENGTH) && isDigits(buffer, from, to);
+	}
+
+	private static boolean isDigits(char[] buffer, int from, int to){
+		for (int i = from; i < to; i++){
+			if (buffer[i] < '0' || buffer[i] > '9'){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(char[] buffer, int from, int to, char c){
+		for (int i = from; i < to; i++){
+			if (buffer[i] == c){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * check the Luhn (mod 10) check digit of a run of digits
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static boolean luhn(char[] buffer, int from, int to){
+		int sum = 0;
+		boolean doubled = false;
+		int d;
+		for (int i = to - 1; i >= from; i--){
+			d = buffer[i] - '0';
+			if (doubled){
+				d *= 2;
+				if (d > 9){
+					d -= 9;
+				}
+			}
+			sum += d;
+			doubled = !doubled;
+		}
+		return (to > from) && (sum % 10 == 0);
+	}
+
+}
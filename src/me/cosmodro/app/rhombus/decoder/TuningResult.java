@@ -0,0 +1,62 @@
+package me.cosmodro.app.rhombus.decoder;
+
+/**
+ * decoder settings found by ParameterTuner, with how they scored over the corpus
+ */
+public class TuningResult {
+	public int silenceLevel;
+	public double smoothing;
+	public double minLevelCoeff;
+
+	public int captures; //number of captures in the corpus
+	public int successes; //captures decoded to their expected content on the first attempt
+	public int errors; //characters which differed from the expected content, over all captures
+	public double meanDecodeMillis;
+
+	public TuningResult(int silenceLevel, double smoothing, double minLevelCoeff){
+		this.silenceLevel = silenceLevel;
+		this.smoothing = smoothing;
+		this.minLevelCoeff = minLevelCoeff;
+	}
+
+	/**
+	 * get the fraction of captures decoded correctly, 0 to 1
+	 * @return
+	 */
+	public double getSuccessRate(){
+		return (captures > 0) ? (double)successes / captures : 0;
+	}
+
+	/**
+	 * get whether this scored better than other: more successes, or as many with fewer wrong characters.
+	 * Decode time is not compared, as it varies from run to run.
+	 * @param other may be null
+	 * @return
+	 */
+	public boolean isBetterThan(TuningResult other){
+		if (other == null){
+			return true;
+		}
+		if (successes != other.successes){
+			return successes > other.successes;
+		}
+		return errors < other.errors;
+	}
+
+	/**
+	 * set these settings on a decoder
+	 * @param decoder
+	 */
+	public void apply(AudioDecoder decoder){
+		decoder.setSilenceLevel(silenceLevel);
+		decoder.setSmoothing(smoothing);
+		decoder.setMinLevelCoeff(minLevelCoeff);
+	}
+
+	public String toString(){
+		return "[silenceLevel: "+silenceLevel+", smoothing: "+String.format("%.3f", smoothing)+
+				", minLevelCoeff: "+String.format("%.3f", minLevelCoeff)+
+				", success: "+successes+"/"+captures+", errors: "+errors+", mean decode: "+String.format("%.2f", meanDecodeMillis)+"ms]";
+	}
+
+}
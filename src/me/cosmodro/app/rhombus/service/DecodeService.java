@@ -0,0 +1,191 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * headless service which decodes swipes from many concurrent sample streams, such as several USB readers
+ * or PCM forwarded from thin clients.  Each stream gets its own session (on a virtual thread where available)
+ * which segments the stream into swipes, decodes them, and reports each to the SwipeListener.
+ *
+ * Per stream memory is bounded by the maximum swipe length.  Settings are read when a stream is opened,
+ * so changes apply to streams opened afterwards.
+ */
+public class DecodeService {
+	private SwipeListener listener;
+	private ThreadFactory threads;
+	private ServiceMetrics metrics = new ServiceMetrics();
+	private ConcurrentHashMap<String, DecodeSession> sessions = new ConcurrentHashMap<String, DecodeSession>();
+	private volatile boolean shutdown = false;
+
+	private int frequency = 44100;
+	private int silenceLevel = 500;
+	private double smoothing = 0.1;
+	private double minLevelCoeff = 0.5;
+	private double maxSwipeSeconds = 10;
+	private long decodeBudgetMillis = 0;
+
+	public DecodeService(SwipeListener listener){
+		this(listener, SessionThreads.newFactory("rhombus-session"));
+	}
+
+	/**
+	 * @param listener
+	 * @param threads factory for session threads
+	 */
+	public DecodeService(SwipeListener listener, ThreadFactory threads){
+		this.listener = listener;
+		this.threads = threads;
+	}
+
+	/**
+	 * start decoding a stream
+	 * @param id name for the stream, passed to the listener.  Must not be in use by another open stream.
+	 * @param stream
+	 * @throws IllegalStateException if the service is shut down or the id is in use
+	 */
+	public void open(String id, SampleStream stream){
+		if (shutdown){
+			throw new IllegalStateException("DecodeService has been shut down");
+		}
+		DecodeSession session = new DecodeSession(id, stream, this);
+		if (sessions.putIfAbsent(id, session) != null){
+			throw new IllegalStateException("stream id already open: "+id);
+		}
+		metrics.streamsOpened.incrementAndGet();
+		metrics.activeStreams.incrementAndGet();
+		threads.newThread(session).start();
+	}
+
+	/**
+	 * stop decoding a stream and close it
+	 * @param id
+	 * @return false if no stream with that id is open
+	 */
+	public boolean close(String id){
+		DecodeSession session = sessions.get(id);
+		if (session == null){
+			return false;
+		}
+		session.close();
+		return true;
+	}
+
+	/**
+	 * get the ids of the open streams
+	 * @return
+	 */
+	public List<String> getStreamIds(){
+		return new ArrayList<String>(sessions.keySet());
+	}
+
+	/**
+	 * close every stream and refuse new ones
+	 */
+	public void shutdown(){
+		shutdown = true;
+		for (DecodeSession session : sessions.values()){
+			session.close();
+		}
+	}
+
+	public boolean isShutdown(){
+		return shutdown;
+	}
+
+	void sessionEnded(DecodeSession session, Exception error){
+		sessions.remove(session.getId(), session);
+		metrics.activeStreams.decrementAndGet();
+		if (error != null){
+			metrics.streamsFailed.incrementAndGet();
+		}
+		try{
+			listener.onStreamClosed(session.getId(), error);
+		}catch(RuntimeException e){
+			//the session is over either way
+		}
+	}
+
+	public ServiceMetrics getMetrics(){
+		return metrics;
+	}
+
+	SwipeListener getListener(){
+		return listener;
+	}
+
+	public int getFrequency(){
+		return frequency;
+	}
+
+	/**
+	 * set the sample rate of the streams.  Defaults to 44100
+	 * @param frequency
+	 */
+	public void setFrequency(int frequency){
+		this.frequency = frequency;
+	}
+
+	public int getSilenceLevel(){
+		return silenceLevel;
+	}
+
+	/**
+	 * set the level below which samples are silent, for both segmenting and decoding.  Defaults to 500
+	 * @param silenceLevel
+	 */
+	public void setSilenceLevel(int silenceLevel){
+		this.silenceLevel = silenceLevel;
+	}
+
+	public double getSmoothing(){
+		return smoothing;
+	}
+
+	/**
+	 * see AudioDecoder.setSmoothing.  Defaults to 0.1
+	 * @param smoothing
+	 */
+	public void setSmoothing(double smoothing){
+		this.smoothing = smoothing;
+	}
+
+	public double getMinLevelCoeff(){
+		return minLevelCoeff;
+	}
+
+	/**
+	 * see AudioDecoder.setMinLevelCoeff.  Defaults to 0.5
+	 * @param minLevelCoeff
+	 */
+	public void setMinLevelCoeff(double minLevelCoeff){
+		this.minLevelCoeff = minLevelCoeff;
+	}
+
+	public double getMaxSwipeSeconds(){
+		return maxSwipeSeconds;
+	}
+
+	/**
+	 * set the longest swipe to capture, which bounds the memory used by each stream.  Defaults to 10
+	 * @param maxSwipeSeconds
+	 */
+	public void setMaxSwipeSeconds(double maxSwipeSeconds){
+		this.maxSwipeSeconds = maxSwipeSeconds;
+	}
+
+	public long getDecodeBudgetMillis(){
+		return decodeBudgetMillis;
+	}
+
+	/**
+	 * set the time limit for decoding each swipe, or 0 for none.  Defaults to 0
+	 * @param decodeBudgetMillis
+	 */
+	public void setDecodeBudgetMillis(long decodeBudgetMillis){
+		this.decodeBudgetMillis = decodeBudgetMillis;
+	}
+
+}
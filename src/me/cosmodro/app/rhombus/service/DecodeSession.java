@@ -0,0 +1,107 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.io.IOException;
+
+import me.cosmodro.app.rhombus.decoder.AudioDecoder;
+import me.cosmodro.app.rhombus.decoder.DecodeDeadline;
+import me.cosmodro.app.rhombus.decoder.SwipeData;
+
+/**
+ * reads, segments and decodes one stream, on its own thread.
+ * Each session has its own decoder and buffers, so a bad or slow stream cannot affect the others.
+ */
+class DecodeSession implements Runnable {
+	private static final int READ_SIZE = 1024;
+
+	private final String id;
+	private final SampleStream stream;
+	private final DecodeService service;
+	private final AudioDecoder decoder;
+	private final StreamSegmenter segmenter;
+	private final long decodeBudgetMillis;
+	private volatile boolean closed = false;
+
+	DecodeSession(String id, SampleStream stream, DecodeService service){
+		this.id = id;
+		this.stream = stream;
+		this.service = service;
+		this.decoder = new AudioDecoder();
+		decoder.setSilenceLevel(service.getSilenceLevel());
+		decoder.setSmoothing(service.getSmoothing());
+		decoder.setMinLevelCoeff(service.getMinLevelCoeff());
+		this.segmenter = new StreamSegmenter(service.getFrequency(), service.getSilenceLevel(),
+				(int)(service.getFrequency() * service.getMaxSwipeSeconds()));
+		this.decodeBudgetMillis = service.getDecodeBudgetMillis();
+	}
+
+	String getId(){
+		return id;
+	}
+
+	public void run(){
+		Exception error = null;
+		ServiceMetrics metrics = service.getMetrics();
+		short[] buffer = new short[READ_SIZE];
+		try{
+			int n;
+			while (!closed && (n = stream.read(buffer, 0, buffer.length)) >= 0){
+				metrics.samples.addAndGet(n);
+				int offset = 0;
+				while (offset < n){
+					offset += segmenter.feed(buffer, offset, n - offset);
+					if (segmenter.hasSwipe()){
+						decode();
+						segmenter.next();
+					}
+				}
+			}
+			//a swipe cut short by the end of the stream is still worth decoding, but not one cut short by close()
+			if (!closed && segmenter.finish()){
+				decode();
+				segmenter.next();
+			}
+		}catch(IOException e){
+			if (!closed){
+				error = e;
+			}
+		}catch(RuntimeException e){
+			error = e;
+		}finally{
+			try{
+				stream.close();
+			}catch(IOException e){
+				//already finished with it
+			}
+			service.sessionEnded(this, error);
+		}
+	}
+
+	private void decode(){
+		ServiceMetrics metrics = service.getMetrics();
+		DecodeDeadline deadline = (decodeBudgetMillis > 0) ? DecodeDeadline.withBudget(decodeBudgetMillis) : new DecodeDeadline();
+		long start = System.nanoTime();
+		SwipeData data = decoder.processData(segmenter.getBuffer(), 0, segmenter.getSwipeLength(), deadline);
+		metrics.decodeNanos.addAndGet(System.nanoTime() - start);
+		metrics.swipes.incrementAndGet();
+		if (data.isBadRead()){
+			metrics.badReads.incrementAndGet();
+		}
+		if (data.isTimedOut()){
+			metrics.timedOut.incrementAndGet();
+		}
+		service.getListener().onSwipe(id, data);
+	}
+
+	/**
+	 * stop the session.  Closes the stream to unblock a pending read.
+	 */
+	void close(){
+		closed = true;
+		try{
+			stream.close();
+		}catch(IOException e){
+			//the session thread will finish either way
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import me.cosmodro.app.rhombus.decoder.CardTrack;
+import me.cosmodro.app.rhombus.decoder.SwipeData;
+import me.cosmodro.app.rhombus.decoder.TrackParser;
+
+/**
+ * accepts PCM streams on a loopback TCP port and feeds each connection to a DecodeService.
+ * Each connection sends raw 16 bit little endian mono PCM at the service's sample rate.
+ * Stands in for local transports (such as unix sockets) that the target platforms don't all offer.
+ *
+ * usage: LoopbackServer [port]   runs a service printing a summary of each swipe (not its content), default port 7345
+ */
+public class LoopbackServer {
+	public static final int DEFAULT_PORT = 7345;
+
+	private DecodeService service;
+	private int port;
+	private ServerSocket serverSocket;
+	private volatile boolean running = false;
+	private int connections = 0;
+
+	/**
+	 * @param service
+	 * @param port port to listen on, or 0 for any free port
+	 */
+	public LoopbackServer(DecodeService service, int port){
+		this.service = service;
+		this.port = port;
+	}
+
+	/**
+	 * bind the port and start accepting connections on a background thread
+	 * @throws IOException
+	 */
+	public void start() throws IOException{
+		serverSocket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		running = true;
+		Thread acceptor = new Thread("rhombus-loopback-accept"){
+			public void run(){
+				accept();
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * get the port being listened on
+	 * @return
+	 */
+	public int getPort(){
+		return (serverSocket != null) ? serverSocket.getLocalPort() : port;
+	}
+
+	/**
+	 * stop accepting connections.  Streams already open keep running until closed or the service is shut down.
+	 */
+	public void stop(){
+		running = false;
+		try{
+			if (serverSocket != null){
+				serverSocket.close();
+			}
+		}catch(IOException e){
+			//closing anyway
+		}
+	}
+
+	private void accept(){
+		while (running){
+			try{
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				connections++;
+				String id = "loopback-"+connections+"-"+socket.getPort();
+				try{
+					service.open(id, new PcmInputStream(socket.getInputStream(), false));
+				}catch(IllegalStateException e){
+					socket.close();
+				}
+			}catch(IOException e){
+				if (running){
+					System.err.println("loopback accept failed: "+e);
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception{
+		int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		final DecodeService service = new DecodeService(new SwipeListener(){
+			public void onSwipe(String streamId, SwipeData data){
+				//print the parse summary, never the content: it holds the card number and name
+				CardTrack track = new CardTrack();
+				if (!data.isBadRead()){
+					new TrackParser().parse(data, track);
+				}
+				System.out.println(streamId+": "+(data.isBadRead() ? "bad read" : track.toString())+
+						(data.getBadCharIndices().isEmpty() ? "" : " bad chars: "+data.getBadCharIndices()));
+			}
+
+			public void onStreamClosed(String streamId, Exception error){
+				System.out.println(streamId+": closed"+(error != null ? " ("+error+")" : ""));
+			}
+		});
+		LoopbackServer server = new LoopbackServer(service, port);
+		server.start();
+		System.out.println("listening on 127.0.0.1:"+server.getPort()+(SessionThreads.isVirtualAvailable() ? " (virtual threads)" : ""));
+		while (true){
+			Thread.sleep(10000);
+			System.out.println(service.getMetrics());
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * SampleStream over raw 16 bit PCM bytes, such as audio forwarded over a socket
+ */
+public class PcmInputStream implements SampleStream {
+	private InputStream in;
+	private boolean bigEndian;
+	private byte[] bytes = new byte[0];
+	private int oddByte = -1; //first half of a sample left over from the last read, or -1
+
+	/**
+	 * @param in
+	 * @param bigEndian true for network/DataOutputStream byte order, false for WAV/USB audio byte order
+	 */
+	public PcmInputStream(InputStream in, boolean bigEndian){
+		this.in = in;
+		this.bigEndian = bigEndian;
+	}
+
+	public int read(short[] buffer, int offset, int length) throws IOException{
+		if (length <= 0){
+			return 0;
+		}
+		int byteCount = length * 2;
+		if (bytes.length < byteCount){
+			bytes = new byte[byteCount];
+		}
+		int have = 0;
+		if (oddByte >= 0){
+			bytes[have++] = (byte)oddByte;
+			oddByte = -1;
+		}
+		//read until we have at least one whole sample
+		while (have < 2){
+			int n = in.read(bytes, have, byteCount - have);
+			if (n < 0){
+				return -1; //a trailing half sample is dropped
+			}
+			have += n;
+		}
+		int samples = have / 2;
+		if ((have & 1) != 0){
+			oddByte = bytes[have - 1] & 0xFF;
+		}
+		for (int i = 0; i < samples; i++){
+			int b0 = bytes[i * 2] & 0xFF;
+			int b1 = bytes[i * 2 + 1] & 0xFF;
+			buffer[offset + i] = bigEndian ? (short)((b0 << 8) | b1) : (short)((b1 << 8) | b0);
+		}
+		return samples;
+	}
+
+	public void close() throws IOException{
+		in.close();
+	}
+
+}
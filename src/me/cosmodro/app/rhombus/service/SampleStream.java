@@ -0,0 +1,26 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.io.IOException;
+
+/**
+ * a stream of 16 bit mono PCM samples from one reader, as fed to the DecodeService
+ */
+public interface SampleStream {
+
+	/**
+	 * read samples, blocking until some are available
+	 * @param buffer
+	 * @param offset
+	 * @param length maximum number of samples to read
+	 * @return number of samples read, or -1 at the end of the stream
+	 * @throws IOException
+	 */
+	public int read(short[] buffer, int offset, int length) throws IOException;
+
+	/**
+	 * close the stream.  A read blocked on another thread should return or throw.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+}
@@ -0,0 +1,90 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * aggregate counters across all streams of a DecodeService.  Safe to read from any thread while the service runs.
+ */
+public class ServiceMetrics {
+	private final long startNanos = System.nanoTime();
+
+	final AtomicInteger activeStreams = new AtomicInteger();
+	final AtomicLong streamsOpened = new AtomicLong();
+	final AtomicLong streamsFailed = new AtomicLong();
+	final AtomicLong samples = new AtomicLong();
+	final AtomicLong swipes = new AtomicLong();
+	final AtomicLong badReads = new AtomicLong();
+	final AtomicLong timedOut = new AtomicLong();
+	final AtomicLong decodeNanos = new AtomicLong();
+
+	public int getActiveStreams(){
+		return activeStreams.get();
+	}
+
+	public long getStreamsOpened(){
+		return streamsOpened.get();
+	}
+
+	/**
+	 * get the number of streams which ended with an error
+	 * @return
+	 */
+	public long getStreamsFailed(){
+		return streamsFailed.get();
+	}
+
+	/**
+	 * get the number of samples read, across all streams
+	 * @return
+	 */
+	public long getSamples(){
+		return samples.get();
+	}
+
+	/**
+	 * get the number of swipes segmented and decoded
+	 * @return
+	 */
+	public long getSwipes(){
+		return swipes.get();
+	}
+
+	public long getBadReads(){
+		return badReads.get();
+	}
+
+	public long getTimedOut(){
+		return timedOut.get();
+	}
+
+	/**
+	 * get the total time spent decoding, across all streams
+	 * @return
+	 */
+	public long getDecodeNanos(){
+		return decodeNanos.get();
+	}
+
+	/**
+	 * get the aggregate input rate since the service started
+	 * @return
+	 */
+	public double getSamplesPerSecond(){
+		long elapsed = System.nanoTime() - startNanos;
+		return (elapsed > 0) ? samples.get() * 1000000000.0 / elapsed : 0;
+	}
+
+	public double getMeanDecodeMillis(){
+		long n = swipes.get();
+		return (n > 0) ? decodeNanos.get() / (n * 1000000.0) : 0;
+	}
+
+	public String toString(){
+		return "[streams: "+getActiveStreams()+" active, "+getStreamsOpened()+" opened, "+getStreamsFailed()+" failed"+
+				", samples: "+getSamples()+" ("+Math.round(getSamplesPerSecond())+"/s)"+
+				", swipes: "+getSwipes()+" ("+getBadReads()+" bad, "+getTimedOut()+" timed out)"+
+				", mean decode: "+String.format("%.2f", getMeanDecodeMillis())+"ms]";
+	}
+
+}
@@ -0,0 +1,62 @@
+package me.cosmodro.app.rhombus.service;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * creates the threads DecodeService runs sessions on.
+ * Uses virtual threads when the running JVM has them (Java 21+), found by reflection so the library still
+ * builds and runs on older JVMs and Android, where it falls back to daemon platform threads.
+ */
+public class SessionThreads {
+
+	private SessionThreads(){
+	}
+
+	/**
+	 * get the best available thread factory
+	 * @param prefix thread name prefix, for platform threads
+	 * @return
+	 */
+	public static ThreadFactory newFactory(String prefix){
+		ThreadFactory factory = virtualThreadFactory();
+		if (factory != null){
+			return factory;
+		}
+		return platformThreadFactory(prefix);
+	}
+
+	/**
+	 * get whether newFactory will create virtual threads on this JVM
+	 * @return
+	 */
+	public static boolean isVirtualAvailable(){
+		return virtualThreadFactory() != null;
+	}
+
+	private static ThreadFactory virtualThreadFactory(){
+		try{
+			Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			Object builder = ofVirtual.invoke(null);
+			//look the method up on the public interface; the builder's own class is not accessible
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		}catch(Exception e){
+			//not available: older JVM, Android, or a preview feature that isn't enabled
+			return null;
+		}
+	}
+
+	private static ThreadFactory platformThreadFactory(final String prefix){
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, prefix+"-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,142 @@
+package me.cosmodro.app.rhombus.service;
+
+import me.cosmodro.app.rhombus.decoder.SampleKernels;
+
+/**
+ * splits a continuous stream of samples into swipes, the same way AudioMonitor does:
+ * a swipe starts with a run of more than quorum non-silent samples, and ends after a second of silence
+ * or when the maximum length is reached.  Trailing silence is trimmed from the result.
+ *
+ * Memory is bounded: one capture buffer of the maximum swipe length, allocated up front.
+ */
+public class StreamSegmenter {
+	private int silenceLevel;
+	private int quorum = 5; //number of non-silent samples to find before we begin recording.
+	private int endSilence; //samples of silence which end a swipe
+	private int preRoll; //samples before the trigger to keep
+	private int tail; //samples after the last loud one to keep
+
+	private short[] capture;
+	private int length = 0;
+	private boolean recording = false;
+	private boolean complete = false;
+	private int silentSamples = 0;
+	private int nonSilentRun = 0;
+	private int lastLoud = 0;
+
+	/**
+	 * @param frequency sample rate
+	 * @param silenceLevel level below which samples are silent
+	 * @param maxSamples longest swipe to capture
+	 */
+	public StreamSegmenter(int frequency, int silenceLevel, int maxSamples){
+		this.silenceLevel = silenceLevel;
+		this.endSilence = frequency;
+		this.preRoll = frequency / 100;
+		this.tail = frequency / 100;
+		this.capture = new short[maxSamples];
+	}
+
+	/**
+	 * take in samples until a swipe completes or they run out.
+	 * When this returns with hasSwipe() true, the swipe must be taken with next() before feeding more.
+	 * @param buffer
+	 * @param offset
+	 * @param count
+	 * @return number of samples consumed
+	 */
+	public int feed(short[] buffer, int offset, int count){
+		if (complete){
+			throw new IllegalStateException("take the completed swipe with next() before feeding more samples");
+		}
+		int end = offset + count;
+		int i = offset;
+		if (!recording){
+			int trigger = SampleKernels.indexOfLoudRun(buffer, offset, end, silenceLevel, quorum);
+			if (trigger < 0){
+				return count;
+			}
+			recording = true;
+			silentSamples = 0;
+			nonSilentRun = 0;
+			i = Math.max(offset, trigger - quorum - preRoll);
+		}
+		while (i < end){
+			int space = capture.length - length;
+			//fast path: copy a run of silence in one go
+			int loud = SampleKernels.indexOfLoud(buffer, i, end, silenceLevel);
+			int quietEnd = (loud < 0) ? end : loud;
+			if (quietEnd > i){
+				int n = Math.min(quietEnd - i, Math.min(space, endSilence + 1 - silentSamples));
+				System.arraycopy(buffer, i, capture, length, n);
+				length += n;
+				i += n;
+				nonSilentRun = 0;
+				silentSamples += n;
+				if (silentSamples > endSilence || length == capture.length){
+					complete = true;
+					return i - offset;
+				}
+				continue;
+			}
+			capture[length++] = buffer[i++];
+			lastLoud = length - 1;
+			nonSilentRun++;
+			if (nonSilentRun > quorum){ //filter out noise blips
+				silentSamples = 0;
+			}
+			if (length == capture.length){
+				complete = true;
+				return i - offset;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * end the stream: complete any swipe still being recorded, as if it had been followed by silence.
+	 * A recording always holds the loud run which triggered it, so nothing is completed unless a swipe had started.
+	 * @return whether a swipe is now waiting to be taken with next()
+	 */
+	public boolean finish(){
+		if (recording && length > 0){
+			complete = true;
+		}
+		return complete;
+	}
+
+	/**
+	 * get whether a complete swipe is waiting to be taken
+	 * @return
+	 */
+	public boolean hasSwipe(){
+		return complete;
+	}
+
+	/**
+	 * get the buffer holding the completed swipe, from index 0.  Overwritten after next().
+	 * @return
+	 */
+	public short[] getBuffer(){
+		return capture;
+	}
+
+	/**
+	 * get the length of the completed swipe, with trailing silence trimmed
+	 * @return
+	 */
+	public int getSwipeLength(){
+		return Math.min(length, lastLoud + 1 + tail);
+	}
+
+	/**
+	 * discard the completed swipe and go back to waiting for the next one
+	 */
+	public void next(){
+		length = 0;
+		lastLoud = 0;
+		recording = false;
+		complete = false;
+	}
+
+}
@@ -0,0 +1,26 @@
+package me.cosmodro.app.rhombus.service;
+
+import me.cosmodro.app.rhombus.decoder.SwipeData;
+
+/**
+ * receives results from a DecodeService.
+ * Called on the session thread of the stream concerned, so calls for different streams may be concurrent.
+ * An exception thrown from a callback ends that stream's session only.
+ */
+public interface SwipeListener {
+
+	/**
+	 * a swipe was segmented from a stream and decoded
+	 * @param streamId
+	 * @param data
+	 */
+	public void onSwipe(String streamId, SwipeData data);
+
+	/**
+	 * a stream's session has ended
+	 * @param streamId
+	 * @param error the cause, or null if the stream ended normally or was closed
+	 */
+	public void onStreamClosed(String streamId, Exception error);
+
+}
@@ -0,0 +1,269 @@
+package me.cosmodro.app.rhombus.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import me.cosmodro.app.rhombus.AudioMonitor;
+import me.cosmodro.app.rhombus.MessageSink;
+import me.cosmodro.app.rhombus.MessageType;
+import me.cosmodro.app.rhombus.archive.CaptureArchive;
+import me.cosmodro.app.rhombus.archive.CaptureArchiveReader;
+import me.cosmodro.app.rhombus.decoder.AudioDecoder;
+import me.cosmodro.app.rhombus.decoder.SwipeData;
+import me.cosmodro.app.rhombus.decoder.SwipeSynthesizer;
+
+/**
+ * end to end swipe latency harness, for a plain JVM.
+ * Replays swipes through SimulatedAudioSource into AudioMonitor, decodes each recorded swipe on a separate
+ * thread (as the Android Handler would), and reports latency from the last sample of each swipe being captured
+ * to its SwipeData being ready, plus CPU used by the monitor thread while idle.
+ *
+ * Each recording is matched to the swipe whose last loud sample it contains, and recordings matching no swipe
+ * (e.g. noise triggers) are counted separately, so one missed or extra recording doesn't skew the rest.
+ *
+ * Note that AudioMonitor waits for one second of silence after a swipe before handing it on, so at real time
+ * pace, latencies include that second.
+ *
+ * usage: LatencyHarness [-archive file] [-swipes n] [-pace x] [-idle seconds]
+ *   -archive  replay swipes from a capture archive instead of synthetic track 1/track 2 swipes
+ *   -swipes   number of swipes to replay (default 20)
+ *   -pace     multiple of real time to replay at, 0 for as fast as possible (default 1)
+ *   -idle     seconds of silence before the first swipe, for the idle CPU measurement (default 5)
+ */
+public class LatencyHarness {
+	private static final int FREQUENCY = 44100;
+	private static final String TRACK_1 = "%B4111111111111111^DOE/JOHN^2512101000000000000?";
+	private static final String TRACK_2 = ";4111111111111111=25121010000000000000?";
+
+	private int swipeCount = 20;
+	private double pace = 1;
+	private double idleSeconds = 5;
+	private File archiveFile;
+
+	private int frequency = FREQUENCY;
+	private int silenceLevel = 500;
+	private AudioDecoder decoder = new AudioDecoder();
+	private List<short[]> swipes = new ArrayList<short[]>();
+	private List<String> expected = new ArrayList<String>(); //null entries where the content is unknown
+
+	public static void main(String[] args) throws Exception{
+		LatencyHarness harness = new LatencyHarness();
+		for (int i = 0; i < args.length; i++){
+			if (args[i].equals("-archive")){
+				harness.archiveFile = new File(args[++i]);
+			}else if (args[i].equals("-swipes")){
+				harness.swipeCount = Integer.parseInt(args[++i]);
+			}else if (args[i].equals("-pace")){
+				harness.pace = Double.parseDouble(args[++i]);
+			}else if (args[i].equals("-idle")){
+				harness.idleSeconds = Double.parseDouble(args[++i]);
+			}else{
+				System.err.println("usage: LatencyHarness [-archive file] [-swipes n] [-pace x] [-idle seconds]");
+				System.exit(2);
+			}
+		}
+		harness.run();
+	}
+
+	private void loadSwipes() throws IOException{
+		if (archiveFile != null){
+			CaptureArchiveReader reader = new CaptureArchiveReader(archiveFile);
+			try{
+				CaptureArchive header = reader.getHeader();
+				header.configure(decoder);
+				frequency = header.sampleRate;
+				silenceLevel = header.silenceLevel;
+				for (int i = 0; i < swipeCount; i++){
+					int swipe = i % reader.getSwipeCount();
+					short[] samples = new short[reader.getSampleCount(swipe)];
+					reader.openSwipe(swipe).read(samples, 0, samples.length);
+					swipes.add(samples);
+					expected.add(null);
+				}
+			}finally{
+				reader.close();
+			}
+		}else{
+			SwipeSynthesizer synth = new SwipeSynthesizer(frequency);
+			synth.setNoise(100, 1);
+			for (int i = 0; i < swipeCount; i++){
+				String content = (i % 2 == 0) ? TRACK_1 : TRACK_2;
+				swipes.add((i % 2 == 0) ? synth.track1(content) : synth.track2(content));
+				expected.add(content);
+			}
+		}
+	}
+
+	/**
+	 * lay out the script: idle silence, then each swipe with enough silence after it for the monitor to finish recording
+	 * @param markers filled with the index of the last loud sample of each swipe
+	 */
+	private short[] buildScript(int[] markers){
+		int idle = (int)(idleSeconds * frequency);
+		int gap = frequency * 2;
+		int length = idle;
+		for (short[] swipe : swipes){
+			length += swipe.length + gap;
+		}
+		short[] script = new short[length];
+		Random random = new Random(2);
+		for (int i = 0; i < script.length; i++){
+			script[i] = (short)(random.nextGaussian() * silenceLevel / 10); //background hiss, well below silence
+		}
+		int pos = idle;
+		for (int s = 0; s < swipes.size(); s++){
+			short[] swipe = swipes.get(s);
+			System.arraycopy(swipe, 0, script, pos, swipe.length);
+			int last = swipe.length - 1;
+			while (last > 0 && Math.abs(swipe[last]) < silenceLevel){
+				last--;
+			}
+			markers[s] = pos + last;
+			pos += swipe.length + gap;
+		}
+		return script;
+	}
+
+	/**
+	 * find the swipe whose last loud sample falls in a capture
+	 * @param markers as from buildScript
+	 * @param start script position of the capture's first sample
+	 * @param end script position after the capture's last sample
+	 * @return index of the swipe, or -1 if none
+	 */
+	private static int swipeAt(int[] markers, long start, long end){
+		for (int s = 0; s < markers.length; s++){
+			if (markers[s] >= start && markers[s] < end){
+				return s;
+			}
+		}
+		return -1;
+	}
+
+	//a recorded swipe, and the script position just after its last sample
+	private static class Capture {
+		List<Integer> samples;
+		long end;
+
+		Capture(List<Integer> samples, long end){
+			this.samples = samples;
+			this.end = end;
+		}
+	}
+
+	private void run() throws Exception{
+		loadSwipes();
+		int[] markers = new int[swipes.size()];
+		final short[] script = buildScript(markers);
+		final SimulatedAudioSource source = new SimulatedAudioSource(script, pace, markers);
+		final BlockingQueue<Capture> recorded = new LinkedBlockingQueue<Capture>();
+		MessageSink sink = new MessageSink(){
+			@SuppressWarnings("unchecked")
+			public void send(MessageType type, Object obj){
+				if (type == MessageType.DATA){
+					//sent on the monitor thread straight after its last read, so the capture ends at the current position
+					recorded.add(new Capture((List<Integer>)obj, source.getPosition()));
+				}
+			}
+		};
+		final AudioMonitor monitor = new AudioMonitor(sink, source);
+		monitor.setDebugging(false);
+		monitor.setFrequency(frequency);
+		monitor.setSilenceLevel(silenceLevel);
+
+		Thread monitorThread = new Thread("monitor"){
+			public void run(){
+				while (!isInterrupted()){
+					monitor.monitor();
+					monitor.stopRecording();
+				}
+			}
+		};
+		monitorThread.setDaemon(true);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean cpuTiming = threads.isThreadCpuTimeSupported();
+		if (cpuTiming){
+			threads.setThreadCpuTimeEnabled(true);
+		}
+
+		System.out.println("replaying "+swipes.size()+" swipes at "+(pace > 0 ? pace+"x real time" : "full speed")+
+				", "+frequency+"Hz, after "+idleSeconds+"s idle");
+		long wallStart = System.nanoTime();
+		monitorThread.start();
+
+		//idle cpu: monitor thread cpu time over the leading silence
+		int idleSamples = (int)(idleSeconds * frequency);
+		while (source.getPosition() < idleSamples){
+			Thread.sleep(10);
+		}
+		long idleWall = System.nanoTime() - wallStart;
+		long idleCpu = cpuTiming ? threads.getThreadCpuTime(monitorThread.getId()) : -1;
+
+		long[] latencies = new long[swipes.size()];
+		boolean[] captured = new boolean[swipes.size()];
+		int received = 0;
+		int unmatched = 0;
+		int correct = 0;
+		long timeoutMillis = 5000 + (long)(pace > 0 ? (script.length * 1000.0 / (frequency * pace)) : 0);
+		while (received < swipes.size()){
+			Capture capture = recorded.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+			if (capture == null){
+				break;
+			}
+			SwipeData data = decoder.processData(capture.samples);
+			long done = System.nanoTime();
+			//match by position, so a missed swipe or a noise trigger can't shift later latencies onto the wrong swipe
+			int swipe = swipeAt(markers, capture.end - capture.samples.size(), capture.end);
+			if (swipe < 0 || captured[swipe]){
+				unmatched++;
+				continue;
+			}
+			captured[swipe] = true;
+			latencies[received] = done - source.getMarkerNanos(swipe);
+			String want = expected.get(swipe);
+			if (!data.isBadRead() && data.getBadCharIndices().isEmpty() && (want == null || want.equals(data.content))){
+				correct++;
+			}
+			received++;
+		}
+		monitorThread.interrupt();
+		monitor.stopRecording();
+
+		int missed = swipes.size() - received;
+		System.out.println("swipes delivered: "+received+"/"+swipes.size()+(missed > 0 ? " ("+missed+" never captured)" : "")+
+				", decoded cleanly: "+correct);
+		if (unmatched > 0){
+			System.out.println("captures not matching any swipe (noise triggers or split swipes): "+unmatched);
+		}
+		if (received > 0){
+			long[] sorted = Arrays.copyOf(latencies, received);
+			Arrays.sort(sorted);
+			System.out.println("latency ms  p50: "+millis(percentile(sorted, 50))+"  p99: "+millis(percentile(sorted, 99))+
+					"  max: "+millis(sorted[sorted.length - 1]));
+		}
+		if (cpuTiming){
+			System.out.println("idle monitor cpu: "+String.format("%.2f", idleCpu * 100.0 / idleWall)+"% of one core");
+		}else{
+			System.out.println("idle monitor cpu: thread cpu time not supported on this JVM");
+		}
+	}
+
+	private static long percentile(long[] sorted, int p){
+		int index = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+	}
+
+	private static String millis(long nanos){
+		return String.format("%.1f", nanos / 1000000.0);
+	}
+
+}
@@ -0,0 +1,110 @@
+package me.cosmodro.app.rhombus.sim;
+
+import me.cosmodro.app.rhombus.AudioSource;
+
+/**
+ * AudioSource which replays a fixed script of PCM samples on a plain JVM, followed by silence.
+ * Reads are paced against the wall clock, as a real capture would be, at a configurable multiple of real time.
+ * The time each marked sample was handed to the reader is recorded, so latency can be measured from it.
+ *
+ * The replay position carries across stop() and start(), so a monitor which restarts capture between
+ * swipes sees one continuous stream.
+ */
+public class SimulatedAudioSource implements AudioSource {
+	private short[] script;
+	private double pace;
+	private int[] markers;
+	private long[] markerNanos;
+	private int nextMarker = 0;
+
+	private int frequency;
+	private long position = 0; //samples delivered so far, including silence after the script
+	private long startNanos = -1;
+	private volatile boolean started = false;
+
+	/**
+	 * @param script samples to replay
+	 * @param pace multiple of real time to replay at.  1 is real time, 0 is as fast as the reader can take them.
+	 * @param markers ascending indices into script whose delivery times should be recorded
+	 */
+	public SimulatedAudioSource(short[] script, double pace, int[] markers){
+		this.script = script;
+		this.pace = pace;
+		this.markers = markers;
+		this.markerNanos = new long[markers.length];
+	}
+
+	/**
+	 * reports a minimum buffer of 20ms, in bytes, similar to typical devices
+	 */
+	public int getMinBufferSize(int frequency){
+		return Math.max(2, frequency / 50 * 2);
+	}
+
+	public void start(int frequency, int bufferSize){
+		this.frequency = frequency;
+		if (startNanos < 0){
+			startNanos = System.nanoTime();
+		}
+		started = true;
+	}
+
+	public int read(short[] buffer, int offset, int length){
+		if (!started){
+			return -3; //AudioRecord.ERROR_INVALID_OPERATION
+		}
+		if (pace > 0){
+			//wait until the last of these samples would have been captured
+			long due = startNanos + (long)((position + length) * 1000000000.0 / (frequency * pace));
+			long wait = due - System.nanoTime();
+			if (wait > 0){
+				try{
+					Thread.sleep(wait / 1000000, (int)(wait % 1000000));
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					return 0;
+				}
+			}
+		}
+		for (int i = 0; i < length; i++){
+			long p = position + i;
+			buffer[offset + i] = (p < script.length) ? script[(int)p] : 0;
+		}
+		position += length;
+		long now = System.nanoTime();
+		while (nextMarker < markers.length && markers[nextMarker] < position){
+			markerNanos[nextMarker++] = now;
+		}
+		return length;
+	}
+
+	public void stop(){
+		started = false;
+	}
+
+	/**
+	 * get whether the whole script has been delivered
+	 * @return
+	 */
+	public boolean isFinished(){
+		return position >= script.length;
+	}
+
+	/**
+	 * get the number of samples delivered, including silence after the end of the script
+	 * @return
+	 */
+	public long getPosition(){
+		return position;
+	}
+
+	/**
+	 * get when a marked sample was delivered
+	 * @param marker index into the markers array
+	 * @return System.nanoTime() at delivery, or 0 if not yet delivered
+	 */
+	public long getMarkerNanos(int marker){
+		return markerNanos[marker];
+	}
+
+}